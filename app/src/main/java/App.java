@@ -3,8 +3,16 @@ package unsw;
 import spark.Request;
 import spark.Spark;
 import unsw.blackout.BlackoutController;
+import unsw.blackout.ChangeTracker;
 import unsw.blackout.FileTransferException;
+import unsw.blackout.content.ContentStore;
+import unsw.blackout.content.MappedContentStore;
+import unsw.blackout.journal.CommandJournal;
+import unsw.blackout.session.SessionIds;
+import unsw.blackout.session.SessionRegistry;
+import unsw.blackout.stream.TickStream;
 import unsw.response.models.EntityInfoResponse;
+import unsw.response.models.SimulationDeltaResponse;
 import unsw.utils.Angle;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -12,35 +20,140 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializer;
 import com.google.gson.JsonSerializationContext;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+
 import scintilla.Scintilla;
 
 public class App {
-    private static volatile Map<String, BlackoutController> sessionStates = new HashMap<>();
+    private static final String SESSION_COOKIE = "blackoutSession";
+    private static final String SESSION_KEY_FILE = "session.key";
+    private static final long KEEPALIVE_MILLIS = 15000;
+    private static final long SWEEP_MILLIS = 60000;
+    private static final int RETRY_STREAM_SECONDS = 30;
+
+    private static CommandJournal journal;
+    private static SessionIds sessionIds = new SessionIds();
+    private static SessionRegistry sessions;
+    private static final Map<BlackoutController, TickStream> tickStreams = new ConcurrentHashMap<>();
+    // each stream holds a server thread, so only so many may be open at once, 50 unless blackout.maxStreams says
+    private static final Semaphore streamSlots = new Semaphore(Integer.getInteger("blackout.maxStreams", 50));
+    // content of at least 64K characters, unless blackout.mappedContentChars says, is kept off the heap
+    private static final ContentStore contentStore =
+            new MappedContentStore(Integer.getInteger("blackout.mappedContentChars", 64 * 1024));
 
-    private static synchronized BlackoutController getBlackoutController(Request request) {
-        String session = request.session().id();
+    private static BlackoutController getBlackoutController(Request request) {
+        String session = request.attribute(SESSION_COOKIE);
         if (session == null) {
             throw new RuntimeException("No State found");
         }
+        return sessions.get(session);
+    }
 
-        if (sessionStates.containsKey(session)) {
-            return sessionStates.get(session);
-        } else {
-            BlackoutController bc = new BlackoutController();
-            sessionStates.put(session, bc);
-            return bc;
+    /**
+     * @return the request's body as it arrives, read as UTF-8
+     */
+    private static Reader bodyReader(Request request) throws IOException {
+        // Spark keeps a copy of the whole body in its own wrapper, so read it from under that
+        ServletRequest raw = request.raw();
+        while (raw instanceof ServletRequestWrapper) {
+            raw = ((ServletRequestWrapper) raw).getRequest();
         }
+        return new InputStreamReader(raw.getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private static BlackoutController newSession(String sessionId) {
+        BlackoutController bc = new BlackoutController();
+        bc.setContentStore(contentStore);
+        return bc;
+    }
+
+    private static TickStream getTickStream(BlackoutController bc, Gson gson) {
+        return tickStreams.computeIfAbsent(bc, controller -> new TickStream(controller, gson::toJson));
+    }
+
+    /**
+     * Sets up the session registry. Sessions idle for longer than the blackout.sessionIdleMinutes system property,
+     * an hour by default, are let go of, as are the least recently used once all of them take up more than
+     * blackout.sessionBudgetMB, half the heap by default. Journaled sessions let go of to fit the budget are
+     * unloaded from the journal, to be read back from their checkpoints if they are used again, and discarded
+     * along with their checkpoints once they have been out of memory for the idle timeout too. Idle sessions are
+     * gone for good, journaled or not.
+     */
+    private static void openSessions() {
+        sessions = new SessionRegistry(journal == null ? App::newSession : journal::getSession);
+        long idleMillis = TimeUnit.MINUTES.toMillis(Long.getLong("blackout.sessionIdleMinutes", 60));
+        sessions.setIdleTimeout(idleMillis);
+        long budgetMB = Long.getLong("blackout.sessionBudgetMB", Runtime.getRuntime().maxMemory() / 2 >> 20);
+        sessions.setMemoryBudget(budgetMB << 20);
+        sessions.setEvictionListener((session, bc, idle) -> {
+            TickStream stream = tickStreams.remove(bc);
+            if (stream != null) {
+                stream.close();
+            }
+            if (journal != null) {
+                try {
+                    if (idle) {
+                        journal.discard(session);
+                    } else {
+                        journal.unload(session);
+                    }
+                } catch (IOException e) {
+                    // the journal keeps the session in memory, and hands it back the next time it is asked for
+                }
+            }
+        });
+
+        if (journal != null) {
+            // only the sessions with calls after their checkpoints, while the rest are read back when asked for
+            journal.getSessions().forEach(sessions::put);
+            journal.setRetention(idleMillis);
+        }
+        sessions.startSweeping(SWEEP_MILLIS);
+    }
+
+    /**
+     * Rebuilds every session in the journal directory given by the blackout.journal system property, and records
+     * every session's calls there from now on. The key session ids are signed with is kept there too, so clients
+     * get their sessions back after a restart. Without the property sessions only live in memory.
+     */
+    private static void openJournal() throws IOException {
+        String directory = System.getProperty("blackout.journal");
+        if (directory == null) {
+            return;
+        }
+
+        journal = new CommandJournal(Paths.get(directory), contentStore);
+        sessionIds = SessionIds.open(Paths.get(directory).resolve(SESSION_KEY_FILE));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // every call that returned is already on disk
+            }
+        }));
     }
 
     public static void main(String[] args) throws Exception {
         Scintilla.initialize();
+        openJournal();
+        openSessions();
         GsonBuilder gsonBuilder = new GsonBuilder();
 
         JsonSerializer<Angle> serializer = (Angle angle, Type typeOfId, JsonSerializationContext context) -> {
@@ -49,6 +162,17 @@ public class App {
         gsonBuilder.registerTypeAdapter(Angle.class, serializer);
         Gson gson = gsonBuilder.create();
 
+        Spark.before((request, response) -> {
+            // our own cookie outlives the server's sessions, so sessions rebuilt from the journal are found again,
+            // but only ids the server signed are taken, so a client can't pick another's session or make up its own
+            String session = sessionIds.verify(request.cookie(SESSION_COOKIE));
+            if (session == null) {
+                session = sessionIds.newId();
+                response.cookie("/", SESSION_COOKIE, sessionIds.sign(session), -1, false, true);
+            }
+            request.attribute(SESSION_COOKIE, session);
+        });
+
         Spark.after((request, response) -> {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Allow-Methods", "*");
@@ -106,7 +230,8 @@ public class App {
         Spark.post("/api/device/file/", "application/json", (request, response) -> {
             BlackoutController bc = getBlackoutController(request);
             synchronized (bc) {
-                bc.addFileToDevice(request.queryParams("deviceId"), request.queryParams("fileName"), request.body());
+                bc.addFileToDevice(request.queryParams("deviceId"), request.queryParams("fileName"),
+                        bodyReader(request));
                 return "";
             }
         }, gson::toJson);
@@ -137,6 +262,22 @@ public class App {
             }
         }, gson::toJson);
 
+        Spark.get("/api/entity/contactWindows/", "application/json", (request, response) -> {
+            BlackoutController bc = getBlackoutController(request);
+            synchronized (bc) {
+                int horizon;
+                try {
+                    horizon = Integer.parseInt(request.queryParamOrDefault("horizon", "1440"));
+                } catch (NumberFormatException e) {
+                    horizon = 1440;
+                }
+                if (horizon < 0)
+                    horizon = 0;
+
+                return bc.predictContactWindows(request.queryParams("id"), horizon);
+            }
+        }, gson::toJson);
+
         Spark.post("/api/sendFile/", "application/json", (request, response) -> {
             BlackoutController bc = getBlackoutController(request);
             synchronized (bc) {
@@ -160,6 +301,65 @@ public class App {
             }
         }, gson::toJson);
 
+        Spark.post("/api/import/", "application/json", (request, response) -> {
+            BlackoutController bc = getBlackoutController(request);
+            synchronized (bc) {
+                try {
+                    return bc.importScenario(bodyReader(request));
+                } catch (IOException ex) {
+                    return ex.getClass().getSimpleName() + ":" + ex.getMessage();
+                }
+            }
+        }, gson::toJson);
+
+        Spark.get("/api/sessions/metrics/", "application/json", (request, response) -> {
+            return sessions.getMetrics();
+        }, gson::toJson);
+
+        Spark.get("/api/stream/", (request, response) -> {
+            // holds this request's thread for as long as the client listens, sending each tick as it happens, so
+            // once every slot is taken new clients are turned away rather than starving the other requests
+            if (!streamSlots.tryAcquire()) {
+                response.status(503);
+                response.header("Retry-After", String.valueOf(RETRY_STREAM_SECONDS));
+                return "Too many streams open, try again later";
+            }
+            TickStream.Subscriber subscriber;
+            try {
+                BlackoutController bc = getBlackoutController(request);
+                synchronized (bc) {
+                    subscriber = getTickStream(bc, gson).subscribe();
+                }
+            } catch (RuntimeException | Error e) {
+                // the lookup can fail as well, such as for a journaled session whose checkpoint can't be read
+                streamSlots.release();
+                throw e;
+            }
+
+            response.status(200);
+            response.type("text/event-stream;charset=utf-8");
+            response.header("Cache-Control", "no-cache");
+            response.header("Access-Control-Allow-Origin", "*");
+            try {
+                OutputStream out = response.raw().getOutputStream();
+                while (true) {
+                    String event = subscriber.take(KEEPALIVE_MILLIS);
+                    if (subscriber.isClosed()) {
+                        break;
+                    }
+                    sessions.touch(request.attribute(SESSION_COOKIE));
+                    out.write((event == null ? ": keepalive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the client has gone
+            } finally {
+                subscriber.close();
+                streamSlots.release();
+            }
+            return "";
+        });
+
         Spark.post("/api/simulate/", "application/json", (request, response) -> {
             BlackoutController bc = getBlackoutController(request);
             synchronized (bc) {
@@ -172,9 +372,26 @@ public class App {
                 if (n < 1)
                     n = 1;
 
+                TickStream stream = getTickStream(bc, gson);
+                if (Boolean.parseBoolean(request.queryParams("delta"))) {
+                    // the world as it was before the first tick, then only what each tick changed
+                    ChangeTracker tracker = bc.trackChanges();
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("keyframe", tracker.keyframe());
+                    List<SimulationDeltaResponse> deltas = new ArrayList<>();
+                    for (int i = 0; i < n; i++) {
+                        bc.simulate();
+                        stream.publish();
+                        deltas.add(tracker.changes());
+                    }
+                    result.put("deltas", deltas);
+                    return result;
+                }
+
                 List<Map<String, EntityInfoResponse>> results = new ArrayList<>();
                 for (int i = 0; i < n; i++) {
                     bc.simulate();
+                    stream.publish();
 
                     Map<String, EntityInfoResponse> result = new HashMap<>();
                     bc.listSatelliteIds().forEach(id -> result.put(id, bc.getInfo(id)));
@@ -0,0 +1,140 @@
+package unsw.blackout;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Spatial index of entity store slots keyed by angular position and height band.
+ *
+ * Range queries only visit slots in the angular window that could possibly be within range, the caller
+ * still does the exact distance and visibility checks. The window is worked out from the chord length
+ * between two points, which is never more than the true distance, so nothing in range is missed.
+ */
+final class AngularIndex {
+    private static final int NUM_BUCKETS = 360;
+    private static final double BUCKET_WIDTH = 2 * Math.PI / NUM_BUCKETS;
+    private static final double BAND_HEIGHT = 10000;
+
+    private final Map<Integer, Bucket[]> satelliteBands = new TreeMap<>();
+    private final Map<Integer, Bucket[]> deviceBands = new TreeMap<>();
+    private boolean[] indexed = new boolean[0];
+    private boolean[] devices = new boolean[0];
+    private int[] bands = new int[0];
+    private int[] buckets = new int[0];
+
+    private static final class Bucket {
+        private int[] slots = new int[4];
+        private int size;
+
+        private void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        private void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    void put(int slot, boolean isDevice, double height, double radians) {
+        ensureCapacity(slot + 1);
+        int band = (int) Math.floor(height / BAND_HEIGHT);
+        int bucket = bucketOf(radians);
+
+        if (indexed[slot]) {
+            if (devices[slot] == isDevice && bands[slot] == band && buckets[slot] == bucket) {
+                return;
+            }
+            remove(slot);
+        }
+
+        Map<Integer, Bucket[]> grid = isDevice ? deviceBands : satelliteBands;
+        grid.computeIfAbsent(band, key -> newBuckets())[bucket].add(slot);
+        indexed[slot] = true;
+        devices[slot] = isDevice;
+        bands[slot] = band;
+        buckets[slot] = bucket;
+    }
+
+    void remove(int slot) {
+        if (slot >= indexed.length || !indexed[slot]) {
+            return;
+        }
+        Map<Integer, Bucket[]> grid = devices[slot] ? deviceBands : satelliteBands;
+        grid.get(bands[slot])[buckets[slot]].remove(slot);
+        indexed[slot] = false;
+    }
+
+    /**
+     * Visits every satellite (or device) slot that could be within range of a point at the given height and
+     * angle.
+     */
+    void forEachNear(boolean isDevice, double height, double radians, double range, IntConsumer action) {
+        Map<Integer, Bucket[]> grid = isDevice ? deviceBands : satelliteBands;
+        int centre = bucketOf(radians);
+
+        for (Map.Entry<Integer, Bucket[]> entry : grid.entrySet()) {
+            Bucket[] bandBuckets = entry.getValue();
+            double lowestHeight = entry.getKey() * BAND_HEIGHT;
+
+            // distance >= 2 * sqrt(h1 * h2) * sin(angle / 2), so anything further round than this is out of range
+            double ratio = range / (2 * Math.sqrt(height * lowestHeight));
+            int span = NUM_BUCKETS;
+            if (lowestHeight > 0 && ratio < 1) {
+                span = (int) Math.ceil(2 * Math.asin(ratio) / BUCKET_WIDTH) + 1;
+            }
+
+            if (2 * span + 1 >= NUM_BUCKETS) {
+                for (Bucket bucket : bandBuckets) {
+                    visit(bucket, action);
+                }
+            } else {
+                for (int offset = -span; offset <= span; offset++) {
+                    visit(bandBuckets[Math.floorMod(centre + offset, NUM_BUCKETS)], action);
+                }
+            }
+        }
+    }
+
+    private static void visit(Bucket bucket, IntConsumer action) {
+        for (int i = 0; i < bucket.size; i++) {
+            action.accept(bucket.slots[i]);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= indexed.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, indexed.length * 2);
+        indexed = Arrays.copyOf(indexed, newCapacity);
+        devices = Arrays.copyOf(devices, newCapacity);
+        bands = Arrays.copyOf(bands, newCapacity);
+        buckets = Arrays.copyOf(buckets, newCapacity);
+    }
+
+    private static int bucketOf(double radians) {
+        double normalised = radians % (2 * Math.PI);
+        if (normalised < 0) {
+            normalised += 2 * Math.PI;
+        }
+        return Math.min((int) (normalised / BUCKET_WIDTH), NUM_BUCKETS - 1);
+    }
+
+    private static Bucket[] newBuckets() {
+        Bucket[] newBuckets = new Bucket[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            newBuckets[i] = new Bucket();
+        }
+        return newBuckets;
+    }
+}
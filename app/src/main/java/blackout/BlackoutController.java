@@ -1,10 +1,23 @@
 package unsw.blackout;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import unsw.blackout.content.ContentStore;
+import unsw.blackout.content.FileContent;
+import unsw.blackout.content.HeapContent;
 import unsw.blackout.devices.DesktopDevice;
 import unsw.blackout.devices.Device;
 import unsw.blackout.devices.HandheldDevice;
@@ -13,6 +26,7 @@ import unsw.blackout.satellites.RelaySatellite;
 import unsw.blackout.satellites.Satellite;
 import unsw.blackout.satellites.StandardSatellite;
 import unsw.blackout.satellites.TeleportingSatellite;
+import unsw.response.models.ContactWindowResponse;
 import unsw.response.models.EntityInfoResponse;
 import unsw.response.models.FileInfoResponse;
 
@@ -25,10 +39,31 @@ import unsw.utils.Angle;
  * signatures
  */
 public class BlackoutController {
+    // rough sizes of what each entity, file and slope keeps on the heap, not counting file content
+    private static final long ENTITY_BYTES = 1024;
+    private static final long FILE_BYTES = 256;
+    private static final long SLOPE_BYTES = 64;
+
     private Map<String, Device> deviceMap = new HashMap<>();
     private Map<String, Satellite> satelliteMap = new HashMap<>();
-    private Map<List<String>, List<File>> filesToTransfer = new HashMap<>();
-    private List<Slope> slopesArray = new ArrayList<>();
+    private LinkTable linkTable = new LinkTable();
+    private FileHolderIndex fileHolderIndex = new FileHolderIndex();
+    private SlopeIndex slopes = new SlopeIndex();
+    private ContentStore contentStore = HeapContent::new;
+    private SimulationClock clock = new SimulationClock();
+    private EntityStore entityStore = new EntityStore();
+    private long entityStoreTick;
+    private LinkGraph linkGraph;
+    private Map<String, List<String>> directLinks = new HashMap<>();
+    private LinkPredictor linkPredictor = new LinkPredictor(deviceMap, satelliteMap);
+    private EventEngine eventEngine = new EventEngine(deviceMap, satelliteMap, linkTable, clock,
+            linkPredictor);
+    private boolean eventDriven = true;
+    private int maxRelayHops = Integer.MAX_VALUE;
+    private ForkJoinPool movementPool;
+    private int parallelMovementThreshold;
+    private ForkJoinPool transferPool;
+    private int parallelTransferThreshold;
 
     /**
     * Creates a device and adds it to the system.
@@ -48,6 +83,10 @@ public class BlackoutController {
             DesktopDevice newDevice = new DesktopDevice(deviceId, type, position);
             deviceMap.put(deviceId, newDevice);
         }
+        if (deviceMap.containsKey(deviceId)) {
+            entityStore.putDevice(deviceId, deviceMap.get(deviceId).getKind(), position.toRadians());
+        }
+        linkGraph = null;
     }
 
     /**
@@ -57,11 +96,18 @@ public class BlackoutController {
     */
     public void removeDevice(String deviceId) {
         deviceMap.remove(deviceId);
-        filesToTransfer.keySet().removeIf(key -> key.contains(deviceId));
+        entityStore.remove(deviceId);
+        linkGraph = null;
+        linkTable.removeEntity(deviceId);
 
-        satelliteMap.values().forEach(sat -> sat.getFilesMap().values().removeIf(file -> {
-            return file.getTo().equals(deviceId) || file.getFrom().equals(deviceId);
-        }));
+        for (String holderId : fileHolderIndex.removeEntity(deviceId)) {
+            Satellite sat = satelliteMap.get(holderId);
+            if (sat != null) {
+                sat.getFilesMap().values().removeIf(file -> {
+                    return deviceId.equals(file.getTo()) || deviceId.equals(file.getFrom());
+                });
+            }
+        }
     }
 
     /**
@@ -74,15 +120,20 @@ public class BlackoutController {
     */
     public void createSatellite(String satelliteId, String type, double height, Angle position) {
         if (type.equals("StandardSatellite")) {
-            StandardSatellite newSatellite = new StandardSatellite(satelliteId, type, height, position);
+            StandardSatellite newSatellite = new StandardSatellite(satelliteId, type, height, position, clock);
             satelliteMap.put(satelliteId, newSatellite);
         } else if (type.equals("TeleportingSatellite")) {
-            TeleportingSatellite newSatellite = new TeleportingSatellite(satelliteId, type, height, position);
+            TeleportingSatellite newSatellite = new TeleportingSatellite(satelliteId, type, height, position, clock);
             satelliteMap.put(satelliteId, newSatellite);
         } else if (type.equals("RelaySatellite")) {
-            RelaySatellite newSatellite = new RelaySatellite(satelliteId, type, height, position);
+            RelaySatellite newSatellite = new RelaySatellite(satelliteId, type, height, position, clock);
             satelliteMap.put(satelliteId, newSatellite);
         }
+        if (satelliteMap.containsKey(satelliteId)) {
+            entityStore.putSatellite(satelliteId, satelliteMap.get(satelliteId).getKind(), height,
+                    position.toRadians());
+        }
+        linkGraph = null;
     }
 
     /**
@@ -92,11 +143,18 @@ public class BlackoutController {
     */
     public void removeSatellite(String satelliteId) {
         satelliteMap.remove(satelliteId);
-        filesToTransfer.keySet().removeIf(key -> key.contains(satelliteId));
+        entityStore.remove(satelliteId);
+        linkGraph = null;
+        linkTable.removeEntity(satelliteId);
 
-        deviceMap.values().forEach(dev -> dev.getFilesMap().values().removeIf(file -> {
-            return file.getTo().equals(satelliteId) || file.getFrom().equals(satelliteId);
-        }));
+        for (String holderId : fileHolderIndex.removeEntity(satelliteId)) {
+            Device dev = deviceMap.get(holderId);
+            if (dev != null) {
+                dev.getFilesMap().values().removeIf(file -> {
+                    return satelliteId.equals(file.getTo()) || satelliteId.equals(file.getFrom());
+                });
+            }
+        }
     }
 
     /**
@@ -125,7 +183,21 @@ public class BlackoutController {
     * @param content  the content of the file
     */
     public void addFileToDevice(String deviceId, String filename, String content) {
-        deviceMap.get(deviceId).addToFilesArray(filename, content, deviceId);
+        deviceMap.get(deviceId).addToFilesArray(filename, contentStore.store(content), deviceId);
+    }
+
+    /**
+    * Adds a file to a device, streaming its content into the content store, so content too big for the heap can
+    * be added when the store keeps it elsewhere.
+    *
+    * @param deviceId the unique identifier of the device to add the file to
+    * @param filename the name of the file to add
+    * @param content  the content of the file, read to the end but not closed
+    * @throws IOException if the content can't be read or stored
+    */
+    public void addFileToDevice(String deviceId, String filename, Reader content) throws IOException {
+        Device device = deviceMap.get(deviceId);
+        device.addToFilesArray(filename, contentStore.store(content), deviceId);
     }
 
     /**
@@ -149,29 +221,110 @@ public class BlackoutController {
     /**
     * Simulates the movement of satellites, transfer of files and progression of satellite and device interaction,
     * updating the positions of moving entities for 1 tick.
+    *
+    * Satellites move with the clock and only work out where they are when something asks, so a tick with no
+    * transfers in flight only has to step the moving devices.
     */
     public void simulate() {
-        satelliteMap.values().forEach(Satellite::setNewPosition);
-        deviceMap.values().stream().filter(device -> device.isMoving())
-                .forEach(device -> device.setNewPosition(slopesArray));
+        clock.advance(1);
+        moveDevices(1);
+        linkGraph = null;
 
-        List<File> filesToRemove = new ArrayList<>();
+        if (!linkTable.isEmpty()) {
+            transferFiles();
+        }
+    }
+
+    /**
+     * Steps every moving device along the slopes for the given number of ticks.
+     */
+    private void moveDevices(long ticks) {
+        List<Device> movingDevices = deviceMap.values().stream().filter(device -> device.isMoving())
+                .collect(Collectors.toList());
+        Consumer<Device> move = device -> {
+            for (long tick = 0; tick < ticks; tick++) {
+                device.setNewPosition(slopes);
+            }
+        };
+
+        if (movementPool != null && movingDevices.size() >= parallelMovementThreshold) {
+            // each device only touches its own position, so the order they move in doesn't matter
+            movementPool.submit(() -> movingDevices.parallelStream().forEach(move)).join();
+        } else {
+            movingDevices.forEach(move);
+        }
+
+        movingDevices.forEach(device -> entityStore.putDevice(device.getDeviceId(), device.getKind(),
+                device.getDeviceRadians()));
+    }
+
+    /**
+    * Runs one tick of every in-flight transfer. Transfers are partitioned by receiving entity, since the
+    * transfer step only changes the receiver and the file itself, and the partitions may run on the transfer
+    * pool. Completed transfers and aborts for dropped links, which also touch the sender, are then applied
+    * on the calling thread in link order so the outcome never depends on scheduling.
+    */
+    private void transferFiles() {
+        LinkGraph graph = getLinkGraph();
+        List<List<File>> fileLists = new ArrayList<>();
+        Map<String, List<Integer>> partitions = new HashMap<>();
+        int inFlight = 0;
+        for (Link link : linkTable.links()) {
+            partitions.computeIfAbsent(link.getToId(), key -> new ArrayList<>()).add(fileLists.size());
+            fileLists.add(link.getFiles());
+            inFlight += link.getFiles().size();
+        }
+
+        List<List<File>> finished = new ArrayList<>();
+        List<List<File>> aborted = new ArrayList<>();
+        for (int i = 0; i < fileLists.size(); i++) {
+            finished.add(new ArrayList<>());
+            aborted.add(new ArrayList<>());
+        }
+
+        Consumer<List<Integer>> transferPartition = indices -> indices.forEach(i -> {
+            List<File> files = new ArrayList<>(fileLists.get(i));
+            files.forEach(file -> {
+                if (!file.transferFile(file, files, deviceMap, satelliteMap, graph, finished.get(i))) {
+                    aborted.get(i).add(file);
+                }
+            });
+        });
 
-        for (List<File> fileList : filesToTransfer.values()) {
-            List<File> files = new ArrayList<>(fileList);
-            files.stream().forEach(file -> file.transferFile(file, files, deviceMap, satelliteMap, filesToRemove));
-            fileList.removeAll(filesToRemove);
+        if (transferPool != null && inFlight >= parallelTransferThreshold) {
+            transferPool.submit(() -> partitions.values().parallelStream().forEach(transferPartition)).join();
+        } else {
+            partitions.values().forEach(transferPartition);
+        }
+
+        List<File> filesToRemove = new ArrayList<>();
+        for (int i = 0; i < fileLists.size(); i++) {
+            filesToRemove.addAll(finished.get(i));
+            aborted.get(i).forEach(file -> file.abortTransfer(file, deviceMap, satelliteMap, filesToRemove));
         }
+        fileLists.forEach(fileList -> fileList.removeAll(filesToRemove));
+        linkTable.removeEmptyLinks();
     }
 
     /**
-     * Simulate for the specified number of minutes. You shouldn't need to modify
-     * this function.
+     * Simulate for the specified number of minutes. Unless event driven simulation has been turned off, runs of
+     * ticks where nothing happens but transfers moving along are skipped in one go, and only the ticks with
+     * events in them are stepped.
      * @param numberOfMinutes the number of minutes to simulate
      */
     public void simulate(int numberOfMinutes) {
-        for (int i = 0; i < numberOfMinutes; i++) {
-            simulate();
+        long remaining = numberOfMinutes;
+        while (remaining > 0) {
+            long ticks = eventDriven ? eventEngine.quietTicks(remaining) : 0;
+            if (ticks > 0) {
+                moveDevices(ticks);
+                eventEngine.skip(ticks);
+                linkGraph = null;
+            } else {
+                simulate();
+                ticks = 1;
+            }
+            remaining -= ticks;
         }
     }
 
@@ -182,15 +335,247 @@ public class BlackoutController {
     * @return a list of IDs of entities that are in range and visible from the given entity
     */
     public List<String> communicableEntitiesInRange(String id) {
+        List<String> entities = getLinkGraph().communicableEntitiesInRange(id);
+        return entities == null ? null : new ArrayList<>(entities);
+    }
 
-        if (deviceMap.containsKey(id)) {
-            return deviceMap.get(id).communicableEntitiesInRangeHelper(satelliteMap, deviceMap, id);
-        } else if (satelliteMap.containsKey(id)) {
-            return satelliteMap.get(id).communicableEntitiesInRangeHelper(satelliteMap, deviceMap, id);
-        } else {
+    /**
+    * Predicts when an entity will be directly in contact with its peers, satellites for a device and devices for
+    * a satellite, from now until horizon ticks from now. The windows come from the satellites' orbits rather than
+    * from simulating, so nothing changes. Devices moving along slopes have no predictable path and are left out.
+    *
+    * @param id      the unique identifier of the entity
+    * @param horizon the number of ticks to look ahead, where a negative horizon looks no further than now
+    * @return the contact windows in order of start tick, or null if the entity is not found
+    */
+    public List<ContactWindowResponse> predictContactWindows(String id, int horizon) {
+        if (!deviceMap.containsKey(id) && !satelliteMap.containsKey(id)) {
             return null;
         }
+        return linkPredictor.contactWindows(id, clock.getTick(), clock.getTick() + Math.max(0, horizon));
+    }
 
+    /**
+    * Moves devices, and works out satellite positions, on the given pool whenever there are at least threshold
+    * of them, smaller worlds keep moving on the calling thread. Passing a null pool turns parallel movement off,
+    * which is the default.
+    *
+    * @param pool      the pool to move entities on
+    * @param threshold the number of entities below which movement stays sequential
+    */
+    public void setParallelMovement(ForkJoinPool pool, int threshold) {
+        this.movementPool = pool;
+        this.parallelMovementThreshold = threshold;
+    }
+
+    /**
+    * Runs the transfer phase on the given pool whenever there are at least threshold files in flight. Passing
+    * a null pool turns parallel transfers off, which is the default.
+    *
+    * @param pool      the pool to run transfers on
+    * @param threshold the number of in-flight files below which transfers stay sequential
+    */
+    public void setParallelTransfers(ForkJoinPool pool, int threshold) {
+        this.transferPool = pool;
+        this.parallelTransferThreshold = threshold;
+    }
+
+    /**
+    * Switches simulate(int) between jumping from event to event and stepping every tick. Both end up in the same
+    * state, event driven simulation is the default.
+    *
+    * @param eventDriven whether to skip quiet ticks
+    */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+    }
+
+    /**
+    * Sets where the content of files added to devices is kept from now on, which is on the heap by default.
+    * Files already added stay where they are.
+    *
+    * @param contentStore the store to keep new content in
+    */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+    * Checks every satellite's running storage totals against the files it actually holds.
+    *
+    * @throws IllegalStateException if any satellite's totals have drifted
+    */
+    public void verifyStorageCounters() {
+        satelliteMap.values().forEach(Satellite::verifyStorageCounters);
+    }
+
+    /**
+    * Creates every satellite, device, slope and file in a scenario, in the order they appear, through the same
+    * calls that create them one at a time. The scenario is parsed as it is read, so even one with hundreds of
+    * thousands of entities is never held in memory as a whole. Scenarios can be JSON or CSV, and positions in
+    * them are in radians as in the REST API, see ScenarioImporter for the formats.
+    *
+    * @param reader the scenario to read
+    * @return the number of satellites, devices, slopes and files created
+    * @throws IOException if the reader fails or the scenario is malformed, in which case everything before the
+    *                     bad record has still been created
+    */
+    public int importScenario(Reader reader) throws IOException {
+        return new ScenarioImporter(this).importScenario(reader);
+    }
+
+    boolean hasDevice(String deviceId) {
+        return deviceMap.containsKey(deviceId);
+    }
+
+    /**
+    * Starts keeping track of changes to the world, to send clients a keyframe and then only what changes after
+    * each tick. The tracker carries on working across restore.
+    *
+    * @return a new tracker, whose first call should be keyframe
+    */
+    public ChangeTracker trackChanges() {
+        return new ChangeTracker(this);
+    }
+
+    /**
+    * Roughly how much memory the world takes up, for choosing which sessions to let go of when memory runs short.
+    * Content shared by every copy of a file is only counted once.
+    *
+    * @return an estimate in bytes
+    */
+    public long estimateFootprint() {
+        long bytes = ENTITY_BYTES * (satelliteMap.size() + deviceMap.size()) + SLOPE_BYTES * slopes.getSlopes().size();
+        Set<FileContent> contents = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Map<String, File>> holders = new ArrayList<>();
+        satelliteMap.values().forEach(sat -> holders.add(sat.getFilesMap()));
+        deviceMap.values().forEach(device -> holders.add(device.getFilesMap()));
+        for (Map<String, File> files : holders) {
+            for (File file : files.values()) {
+                bytes += FILE_BYTES;
+                if (contents.add(file.getSharedContent())) {
+                    bytes += 2L * file.getSharedContent().length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    Map<String, Device> getDevices() {
+        return deviceMap;
+    }
+
+    Map<String, Satellite> getSatellites() {
+        return satelliteMap;
+    }
+
+    /**
+    * Writes the whole world, the clock, entities, files, transfers in flight and slopes, to the given stream in a
+    * compact binary form that restore reads back. Settings such as parallelism, the relay hop limit and the content
+    * store belong to the controller rather than the world, so they aren't written. The stream is flushed but not
+    * closed.
+    *
+    * @param out the stream to write to
+    * @throws IOException if the stream fails
+    */
+    public void checkpoint(OutputStream out) throws IOException {
+        Checkpoint.write(out, clock, slopes, satelliteMap, deviceMap, linkTable);
+    }
+
+    /**
+    * Replaces the whole world with one written by checkpoint, after which it carries on exactly as the checkpointed
+    * world would have. The content of restored files goes into the current content store. If the checkpoint can't
+    * be read the world is left as it was. The stream is read through a buffer and isn't closed.
+    *
+    * @param in the stream to read from
+    * @throws IOException if the stream fails or doesn't hold a checkpoint this version can read
+    */
+    public void restore(InputStream in) throws IOException {
+        SimulationClock restoredClock = new SimulationClock();
+        SlopeIndex restoredSlopes = new SlopeIndex();
+        Map<String, Satellite> restoredSatellites = new HashMap<>();
+        Map<String, Device> restoredDevices = new HashMap<>();
+        LinkTable restoredLinks = new LinkTable();
+        Checkpoint.read(in, contentStore, restoredClock, restoredSlopes, restoredSatellites, restoredDevices,
+                restoredLinks);
+
+        clock = restoredClock;
+        slopes = restoredSlopes;
+        satelliteMap = restoredSatellites;
+        deviceMap = restoredDevices;
+        linkTable = restoredLinks;
+        linkPredictor = new LinkPredictor(deviceMap, satelliteMap);
+        eventEngine = new EventEngine(deviceMap, satelliteMap, linkTable, clock, linkPredictor);
+
+        // everything else is worked out from the entities rather than saved
+        entityStore = new EntityStore();
+        fileHolderIndex = new FileHolderIndex();
+        satelliteMap.values().forEach(sat -> {
+            entityStore.putSatellite(sat.getSatelliteId(), sat.getKind(), sat.getSatelliteHeight(),
+                    sat.getSatelliteRadians());
+            recordFileHolder(sat.getSatelliteId(), sat.getFilesMap());
+        });
+        deviceMap.values().forEach(device -> {
+            entityStore.putDevice(device.getDeviceId(), device.getKind(), device.getDeviceRadians());
+            recordFileHolder(device.getDeviceId(), device.getFilesMap());
+        });
+        entityStoreTick = clock.getTick();
+        linkGraph = null;
+        directLinks = new HashMap<>();
+    }
+
+    private void recordFileHolder(String holderId, Map<String, File> filesMap) {
+        for (File file : filesMap.values()) {
+            for (String id : new String[] {file.getFrom(), file.getTo()}) {
+                if (deviceMap.containsKey(id) || satelliteMap.containsKey(id)) {
+                    fileHolderIndex.record(id, holderId);
+                }
+            }
+        }
+    }
+
+    /**
+    * Limits how many relay satellites a link may pass through. Relaying is unlimited by default.
+    *
+    * @param maxRelayHops the most relays a link may pass through, 0 disables relaying
+    */
+    public void setMaxRelayHops(int maxRelayHops) {
+        this.maxRelayHops = maxRelayHops;
+        linkGraph = null;
+    }
+
+    /**
+    * Returns the link graph for the current tick, building it if the world has changed since it was last built.
+    * The new graph carries over whatever direct links the last one worked out.
+    *
+    * @return the link graph for the current positions of all entities
+    */
+    private LinkGraph getLinkGraph() {
+        if (linkGraph == null) {
+            refreshSatellitePositions();
+            linkGraph = new LinkGraph(satelliteMap, deviceMap, entityStore, maxRelayHops, directLinks,
+                    entityStore.takeChangedIds());
+            directLinks = linkGraph.getDirectLinks();
+        }
+        return linkGraph;
+    }
+
+    /**
+    * Brings the entity store up to date with where every satellite is at the current tick. Satellites are only
+    * asked for their positions the first time this happens in a tick.
+    */
+    private void refreshSatellitePositions() {
+        if (entityStoreTick == clock.getTick()) {
+            return;
+        }
+
+        if (movementPool != null && satelliteMap.size() >= parallelMovementThreshold) {
+            movementPool.submit(() -> satelliteMap.values().parallelStream()
+                    .forEach(Satellite::getSatelliteRadians)).join();
+        }
+        satelliteMap.values().forEach(sat -> entityStore.putSatellite(sat.getSatelliteId(), sat.getKind(),
+                sat.getSatelliteHeight(), sat.getSatelliteRadians()));
+        entityStoreTick = clock.getTick();
     }
 
     /**
@@ -202,23 +587,30 @@ public class BlackoutController {
     * @throws FileTransferException if the file cannot be sent
     */
     public void sendFile(String fileName, String fromId, String toId) throws FileTransferException {
+        if ((deviceMap.containsKey(fromId) || satelliteMap.containsKey(fromId))
+                && (deviceMap.containsKey(toId) || satelliteMap.containsKey(toId))) {
+            // the sender's file and the receiver's copy both pick up the two ends here
+            fileHolderIndex.record(toId, fromId);
+            fileHolderIndex.record(fromId, toId);
+        }
 
         if (deviceMap.containsKey(fromId) && satelliteMap.containsKey(toId)) {
             Device currDevice = deviceMap.get(fromId);
             File currFile = currDevice.getFilesMap().get(fileName);
-            currDevice.sendFileHelper(fileName, currFile, fromId, toId, filesToTransfer, satelliteMap, deviceMap);
+            currDevice.sendFileHelper(fileName, currFile, fromId, toId, linkTable, satelliteMap,
+                    getLinkGraph());
 
         } else if (satelliteMap.containsKey(fromId) && deviceMap.containsKey(toId)) {
             Satellite currSatellite = satelliteMap.get(fromId);
             File currFile = currSatellite.getFilesMap().get(fileName);
-            currSatellite.sendFileHelperToDevice(fileName, currFile, fromId, toId, filesToTransfer, deviceMap,
-                    satelliteMap);
+            currSatellite.sendFileHelperToDevice(fileName, currFile, fromId, toId, linkTable, deviceMap,
+                    getLinkGraph());
 
         } else if (satelliteMap.containsKey(fromId) && satelliteMap.containsKey(toId)) {
             Satellite currSatellite = satelliteMap.get(fromId);
             File currFile = currSatellite.getFilesMap().get(fileName);
-            currSatellite.sendFileHelperToSatellite(fileName, currFile, fromId, toId, filesToTransfer, deviceMap,
-                    satelliteMap);
+            currSatellite.sendFileHelperToSatellite(fileName, currFile, fromId, toId, linkTable,
+                    satelliteMap, getLinkGraph());
         } else {
             return;
         }
@@ -241,8 +633,9 @@ public class BlackoutController {
 
     /**
     * Creates a slope object that defines a range of angles and a gradient,
-    * then adds it to the list of slopes managed by the controller.
+    * then adds it to the slopes managed by the controller.
     * This can be used to simulate movement along a path with varying gradient.
+    * A slope whose end angle is before its start angle wraps past 360 degrees.
     *
     * @param startAngle the starting angle of the slope in degrees
     * @param endAngle   the ending angle of the slope in degrees
@@ -250,6 +643,6 @@ public class BlackoutController {
     */
     public void createSlope(int startAngle, int endAngle, int gradient) {
         Slope slope = new Slope(startAngle, endAngle, gradient);
-        slopesArray.add(slope);
+        slopes.add(slope);
     }
 }
@@ -0,0 +1,194 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import unsw.blackout.content.FileContent;
+import unsw.blackout.devices.Device;
+import unsw.blackout.satellites.Satellite;
+import unsw.response.models.EntityDeltaResponse;
+import unsw.response.models.EntityInfoResponse;
+import unsw.response.models.FileDeltaResponse;
+import unsw.response.models.SimulationDeltaResponse;
+import unsw.utils.Angle;
+
+/**
+ * Works out what changed in a controller's world since it was last asked, so a client can be sent one keyframe
+ * and then only the changes after each tick instead of the whole world every time.
+ *
+ * Only the little needed to spot changes is remembered for each entity and file: where the entity is, and how
+ * much of which content each file holds. Data that arrived during a tick is cut out of the shared content without
+ * copying the rest of the file. A tracker isn't thread safe and has to be used while holding the same lock as
+ * the controller it tracks.
+ */
+public final class ChangeTracker {
+    private final BlackoutController controller;
+    private final Map<String, EntityState> entities = new HashMap<>();
+    private long generation;
+
+    ChangeTracker(BlackoutController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Forgets everything seen so far and describes the whole world as it is now, for the changes after it to be
+     * applied to.
+     *
+     * @return every entity, by id
+     */
+    public Map<String, EntityInfoResponse> keyframe() {
+        entities.clear();
+        Map<String, EntityInfoResponse> added = changes().getAdded();
+        return added == null ? new HashMap<>() : added;
+    }
+
+    /**
+     * @return how the world changed since the last keyframe or changes
+     */
+    public SimulationDeltaResponse changes() {
+        generation++;
+        Delta delta = new Delta();
+        for (Satellite sat : controller.getSatellites().values()) {
+            visit(delta, sat.getSatelliteId(), sat.getSatelliteType(), sat.getSatelliteRadians(),
+                    sat.getSatelliteHeight(), sat.getFilesMap());
+        }
+        for (Device device : controller.getDevices().values()) {
+            visit(delta, device.getDeviceId(), device.getDeviceType(), device.getDeviceRadians(),
+                    device.getDeviceHeight(), device.getFilesMap());
+        }
+
+        List<String> removed = null;
+        for (Iterator<Map.Entry<String, EntityState>> it = entities.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, EntityState> entry = it.next();
+            if (entry.getValue().generation != generation) {
+                removed = removed == null ? new ArrayList<>() : removed;
+                removed.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return new SimulationDeltaResponse(delta.added, removed, delta.changed);
+    }
+
+    private void visit(Delta delta, String id, String type, double radians, double height, Map<String, File> files) {
+        EntityState state = entities.get(id);
+        if (state == null || !state.type.equals(type)) {
+            // an entity replaced by another of a different type since the last look is sent whole as well
+            state = new EntityState(type, radians, height);
+            entities.put(id, state);
+            state.generation = generation;
+            for (File file : files.values()) {
+                state.files.put(file.getFilename(), new FileState(file));
+            }
+            delta.added = delta.added == null ? new HashMap<>() : delta.added;
+            delta.added.put(id, controller.getInfo(id));
+            return;
+        }
+        state.generation = generation;
+
+        Angle position = null;
+        Double newHeight = null;
+        if (radians != state.radians) {
+            position = Angle.fromRadians(radians);
+            state.radians = radians;
+        }
+        if (height != state.height) {
+            newHeight = height;
+            state.height = height;
+        }
+
+        Map<String, FileDeltaResponse> fileChanges = null;
+        for (File file : files.values()) {
+            FileDeltaResponse change = fileChange(state, file);
+            if (change != null) {
+                fileChanges = fileChanges == null ? new HashMap<>() : fileChanges;
+                fileChanges.put(file.getFilename(), change);
+            }
+        }
+        List<String> removedFiles = null;
+        // every file there now is remembered by this point, so any more than that are gone
+        if (state.files.size() > files.size()) {
+            for (Iterator<String> it = state.files.keySet().iterator(); it.hasNext();) {
+                String filename = it.next();
+                if (!files.containsKey(filename)) {
+                    removedFiles = removedFiles == null ? new ArrayList<>() : removedFiles;
+                    removedFiles.add(filename);
+                    it.remove();
+                }
+            }
+        }
+
+        if (position != null || newHeight != null || fileChanges != null || removedFiles != null) {
+            delta.changed = delta.changed == null ? new HashMap<>() : delta.changed;
+            delta.changed.put(id, new EntityDeltaResponse(position, newHeight, fileChanges, removedFiles));
+        }
+    }
+
+    /**
+     * Brings the remembered state of a file up to date.
+     *
+     * @return how the file changed, or null if it didn't
+     */
+    private FileDeltaResponse fileChange(EntityState state, File file) {
+        FileState seen = state.files.get(file.getFilename());
+        FileContent content = file.getSharedContent();
+        int contentLength = file.getContentLength();
+        boolean complete = file.getByteSent() == file.getSize();
+        if (seen == null || seen.content != content || contentLength < seen.contentLength) {
+            if (seen == null) {
+                seen = new FileState(file);
+                state.files.put(file.getFilename(), seen);
+            } else {
+                seen.update(file);
+            }
+            return new FileDeltaResponse(file.getContent(), null, file.getSize(), complete);
+        } else if (contentLength == seen.contentLength && file.getSize() == seen.size
+                && complete == seen.complete) {
+            return null;
+        }
+
+        String appended = contentLength == seen.contentLength ? null
+                : content.substring(seen.contentLength, contentLength);
+        seen.update(file);
+        return new FileDeltaResponse(null, appended, file.getSize(), complete);
+    }
+
+    private static final class Delta {
+        private Map<String, EntityInfoResponse> added;
+        private Map<String, EntityDeltaResponse> changed;
+    }
+
+    private static final class EntityState {
+        private final String type;
+        private final Map<String, FileState> files = new HashMap<>();
+        private double radians;
+        private double height;
+        private long generation;
+
+        EntityState(String type, double radians, double height) {
+            this.type = type;
+            this.radians = radians;
+            this.height = height;
+        }
+    }
+
+    private static final class FileState {
+        private FileContent content;
+        private int contentLength;
+        private int size;
+        private boolean complete;
+
+        FileState(File file) {
+            update(file);
+        }
+
+        void update(File file) {
+            content = file.getSharedContent();
+            contentLength = file.getContentLength();
+            size = file.getSize();
+            complete = file.getByteSent() == file.getSize();
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package unsw.blackout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import unsw.blackout.content.ContentStore;
+import unsw.blackout.content.FileContent;
+import unsw.blackout.devices.DesktopDevice;
+import unsw.blackout.devices.Device;
+import unsw.blackout.devices.HandheldDevice;
+import unsw.blackout.devices.LaptopDevice;
+import unsw.blackout.satellites.RelaySatellite;
+import unsw.blackout.satellites.Satellite;
+import unsw.blackout.satellites.StandardSatellite;
+import unsw.blackout.satellites.TeleportingSatellite;
+import unsw.utils.Angle;
+
+/**
+ * Reads and writes the state of a world in a compact binary form, so a big world can be brought back without
+ * replaying every call that built it.
+ *
+ * A checkpoint starts with a magic number and a format version, followed by the clock, the slopes, every
+ * satellite with its files, every device with its files and every link with files in flight, in that order.
+ * Counts and sizes are written as variable length integers. Ids, file names and contents are written out the
+ * first time they come up and referred to by number after that, so a receiver's copy of a file costs a few bytes
+ * however long the content it shares with its sender. Files in flight are referred to by their place among the
+ * files already written, which keeps them the very same objects the senders hold.
+ *
+ * Satellites are saved as the position and tick their orbit started from, and everything else about the orbit,
+ * teleports and relay bounces included, is worked out again from those. Positions are saved as the exact bits
+ * of their radians, so a restored world carries on exactly as the original would have.
+ */
+final class Checkpoint {
+    private static final int MAGIC = 0x424c4b54;
+    private static final int VERSION = 1;
+
+    private static final byte LATIN_1 = 0;
+    private static final byte UTF_16 = 1;
+    // the longest text whose UTF-16 bytes fit in an array
+    private static final int MAX_UTF_16_LENGTH = (Integer.MAX_VALUE - 8) / 2;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes the given world to the stream, which is flushed but not closed.
+     */
+    static void write(OutputStream stream, SimulationClock clock, SlopeIndex slopes,
+            Map<String, Satellite> satelliteMap, Map<String, Device> deviceMap, LinkTable linkTable)
+            throws IOException {
+        Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(stream)));
+        writer.out.writeInt(MAGIC);
+        writer.out.writeByte(VERSION);
+        writer.out.writeLong(clock.getTick());
+
+        writer.writeCount(slopes.getSlopes().size());
+        for (Slope slope : slopes.getSlopes()) {
+            writer.out.writeInt(slope.getStartAngle());
+            writer.out.writeInt(slope.getEndAngle());
+            writer.out.writeInt(slope.getGradient());
+        }
+
+        writer.writeCount(satelliteMap.size());
+        for (Satellite sat : satelliteMap.values()) {
+            writer.writeString(sat.getSatelliteId());
+            writer.out.writeByte(sat.getKind().ordinal());
+            writer.out.writeDouble(sat.getSatelliteHeight());
+            writer.out.writeDouble(sat.getOrbitRadians());
+            writer.out.writeLong(sat.getOrbitTick());
+            writer.writeFiles(sat.getFilesMap());
+        }
+
+        writer.writeCount(deviceMap.size());
+        for (Device device : deviceMap.values()) {
+            writer.writeString(device.getDeviceId());
+            writer.out.writeByte(device.getKind().ordinal());
+            writer.out.writeDouble(device.getDeviceRadians());
+            writer.out.writeDouble(device.getDeviceHeight());
+            writer.out.writeBoolean(device.isMoving());
+            writer.writeFiles(device.getFilesMap());
+        }
+
+        writer.writeCount(linkTable.links().size());
+        for (Link link : linkTable.links()) {
+            writer.writeString(link.getFromId());
+            writer.writeString(link.getToId());
+            writer.writeCount(link.getFiles().size());
+            for (File file : link.getFiles()) {
+                writer.writeFileReference(file);
+            }
+        }
+        writer.out.flush();
+    }
+
+    /**
+     * Reads a world from the stream into the given clock, slopes, maps and link table, which should all be new.
+     * The stream is read through a buffer, so anything after the checkpoint may be read as well.
+     *
+     * @throws IOException if the stream fails or doesn't hold a checkpoint this version can read
+     */
+    static void read(InputStream stream, ContentStore contentStore, SimulationClock clock, SlopeIndex slopes,
+            Map<String, Satellite> satelliteMap, Map<String, Device> deviceMap, LinkTable linkTable)
+            throws IOException {
+        Reader reader = new Reader(new DataInputStream(new BufferedInputStream(stream)), contentStore);
+        if (reader.in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = reader.in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        clock.advance(reader.in.readLong());
+
+        for (int i = reader.readCount(); i > 0; i--) {
+            slopes.add(new Slope(reader.in.readInt(), reader.in.readInt(), reader.in.readInt()));
+        }
+
+        for (int i = reader.readCount(); i > 0; i--) {
+            String id = reader.readString();
+            EntityKind kind = reader.readKind();
+            double height = reader.in.readDouble();
+            double orbitRadians = reader.in.readDouble();
+            long orbitTick = reader.in.readLong();
+
+            Satellite sat = newSatellite(id, kind, height, Angle.fromRadians(orbitRadians), clock);
+            sat.restoreOrbit(orbitRadians, orbitTick);
+            reader.readFiles(sat.getFilesMap());
+            satelliteMap.put(id, sat);
+        }
+
+        for (int i = reader.readCount(); i > 0; i--) {
+            String id = reader.readString();
+            EntityKind kind = reader.readKind();
+            Device device = newDevice(id, kind, Angle.fromRadians(reader.in.readDouble()));
+            device.setDeviceHeight(reader.in.readDouble());
+            device.setMoving(reader.in.readBoolean());
+            reader.readFiles(device.getFilesMap());
+            deviceMap.put(id, device);
+        }
+
+        for (int i = reader.readCount(); i > 0; i--) {
+            Link link = linkTable.getOrCreate(reader.readString(), reader.readString());
+            for (int j = reader.readCount(); j > 0; j--) {
+                link.getFiles().add(reader.readFileReference());
+            }
+        }
+    }
+
+    private static Satellite newSatellite(String id, EntityKind kind, double height, Angle position,
+            SimulationClock clock) throws IOException {
+        switch (kind) {
+        case STANDARD_SATELLITE:
+            return new StandardSatellite(id, kind.getTypeName(), height, position, clock);
+        case TELEPORTING_SATELLITE:
+            return new TeleportingSatellite(id, kind.getTypeName(), height, position, clock);
+        case RELAY_SATELLITE:
+            return new RelaySatellite(id, kind.getTypeName(), height, position, clock);
+        default:
+            throw new IOException("Satellite " + id + " can't be a " + kind.getTypeName());
+        }
+    }
+
+    private static Device newDevice(String id, EntityKind kind, Angle position) throws IOException {
+        switch (kind) {
+        case HANDHELD_DEVICE:
+            return new HandheldDevice(id, kind.getTypeName(), position);
+        case LAPTOP_DEVICE:
+            return new LaptopDevice(id, kind.getTypeName(), position);
+        case DESKTOP_DEVICE:
+            return new DesktopDevice(id, kind.getTypeName(), position);
+        default:
+            throw new IOException("Device " + id + " can't be a " + kind.getTypeName());
+        }
+    }
+
+    /**
+     * Writes one checkpoint, numbering strings, contents and files as they are first written.
+     */
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<FileContent, Integer> contents = new IdentityHashMap<>();
+        private final Map<File, Integer> files = new IdentityHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeFiles(Map<String, File> filesMap) throws IOException {
+            writeCount(filesMap.size());
+            for (File file : filesMap.values()) {
+                writeFile(file);
+            }
+        }
+
+        void writeFile(File file) throws IOException {
+            files.put(file, files.size());
+            writeString(file.getFilename());
+            FileContent content = file.getSharedContent();
+            Integer contentIndex = contents.get(content);
+            if (contentIndex != null) {
+                writeCount(contentIndex + 1);
+            } else {
+                writeCount(contents.size() + 1);
+                contents.put(content, contents.size());
+                writeText(content.prefix(content.length()));
+            }
+            writeCount(file.getContentLength());
+            writeCount(file.getSize());
+            writeCount(file.getByteSent());
+            writeString(file.getFrom());
+            writeString(file.getTo());
+        }
+
+        /**
+         * Refers to a file already written, or writes it out after a 0 if no entity holds it.
+         */
+        void writeFileReference(File file) throws IOException {
+            Integer index = files.get(file);
+            if (index != null) {
+                writeCount(index + 1);
+            } else {
+                writeCount(0);
+                writeFile(file);
+            }
+        }
+
+        /**
+         * Writes 0 for null, the string's number plus one if it has been written before, otherwise the next
+         * number plus one followed by the string itself.
+         */
+        void writeString(String string) throws IOException {
+            if (string == null) {
+                writeCount(0);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeCount(index + 1);
+            } else {
+                writeCount(strings.size() + 1);
+                strings.put(string, strings.size());
+                writeText(string);
+            }
+        }
+
+        /**
+         * Writes text one byte per character when it is all Latin-1, and two otherwise, so every string comes
+         * back exactly as it was.
+         */
+        void writeText(String text) throws IOException {
+            boolean latin1 = text.chars().allMatch(c -> c < 256);
+            writeCount(text.length());
+            out.writeByte(latin1 ? LATIN_1 : UTF_16);
+            out.write(text.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE));
+        }
+
+        /**
+         * Writes seven bits a byte, lowest first, with the top bit set on every byte but the last.
+         */
+        void writeCount(int count) throws IOException {
+            while ((count & ~0x7f) != 0) {
+                out.writeByte((count & 0x7f) | 0x80);
+                count >>>= 7;
+            }
+            out.writeByte(count);
+        }
+    }
+
+    /**
+     * Reads one checkpoint, numbering strings, contents and files the same way they were written.
+     *
+     * Nothing is allocated ahead of the bytes that fill it, so a corrupt count or length runs into the end of the
+     * stream and throws an IOException, rather than asking for more memory than there is.
+     */
+    private static final class Reader {
+        private final DataInputStream in;
+        private final ContentStore contentStore;
+        private final List<String> strings = new ArrayList<>();
+        private final List<FileContent> contents = new ArrayList<>();
+        private final List<File> files = new ArrayList<>();
+
+        Reader(DataInputStream in, ContentStore contentStore) {
+            this.in = in;
+            this.contentStore = contentStore;
+        }
+
+        EntityKind readKind() throws IOException {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= EntityKind.values().length) {
+                throw new IOException("Unknown entity kind " + ordinal);
+            }
+            return EntityKind.values()[ordinal];
+        }
+
+        void readFiles(Map<String, File> filesMap) throws IOException {
+            for (int i = readCount(); i > 0; i--) {
+                File file = readFile();
+                filesMap.put(file.getFilename(), file);
+            }
+        }
+
+        File readFile() throws IOException {
+            String filename = readString();
+            int contentIndex = readCount() - 1;
+            if (contentIndex == contents.size()) {
+                contents.add(contentStore.store(readText()));
+            } else if (contentIndex < 0 || contentIndex > contents.size()) {
+                throw new IOException("Bad content reference " + contentIndex);
+            }
+            File file = new File(filename, contents.get(contentIndex), readCount(), readCount(), readCount(),
+                    readString(), readString());
+            files.add(file);
+            return file;
+        }
+
+        File readFileReference() throws IOException {
+            int index = readCount() - 1;
+            if (index < 0) {
+                return readFile();
+            } else if (index >= files.size()) {
+                throw new IOException("Bad file reference " + index);
+            }
+            return files.get(index);
+        }
+
+        String readString() throws IOException {
+            int index = readCount() - 1;
+            if (index < 0) {
+                return null;
+            } else if (index == strings.size()) {
+                strings.add(readText());
+            } else if (index > strings.size()) {
+                throw new IOException("Bad string reference " + index);
+            }
+            return strings.get(index);
+        }
+
+        String readText() throws IOException {
+            int length = readCount();
+            byte encoding = in.readByte();
+            if (encoding == LATIN_1) {
+                return new String(readBytes(length), StandardCharsets.ISO_8859_1);
+            } else if (encoding == UTF_16) {
+                if (length > MAX_UTF_16_LENGTH) {
+                    throw new IOException("Bad text length " + length);
+                }
+                return new String(readBytes(2 * length), StandardCharsets.UTF_16BE);
+            }
+            throw new IOException("Unknown text encoding " + encoding);
+        }
+
+        /**
+         * Reads the given number of bytes a buffer at a time, so the array only grows as far as the stream goes.
+         */
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) {
+                throw new EOFException("Checkpoint ends " + (length - bytes.length) + " bytes into a text");
+            }
+            return bytes;
+        }
+
+        /**
+         * @throws IOException unless the count is one that writeCount could have written
+         */
+        int readCount() throws IOException {
+            int count = 0;
+            for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+                int next = in.readUnsignedByte();
+                count |= (next & 0x7f) << shift;
+                if ((next & 0x80) == 0) {
+                    if (count < 0) {
+                        break;
+                    }
+                    return count;
+                }
+            }
+            throw new IOException("Malformed count");
+        }
+    }
+}
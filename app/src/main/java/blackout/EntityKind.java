@@ -0,0 +1,112 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every kind of device and satellite, with which kinds each may talk to worked out once as bitmasks.
+ *
+ * Two rules decide who can talk to whom. A device and a satellite can only be linked directly if the device's
+ * kind is one of the satellite's allowed connections, while satellites can always be linked to each other and
+ * devices never can. On top of that, standard satellites and desktop devices never talk to each other, even
+ * through relays. The direct mask covers both rules, and the communicable mask only the second.
+ */
+public enum EntityKind {
+    HANDHELD_DEVICE("HandheldDevice", true),
+    LAPTOP_DEVICE("LaptopDevice", true),
+    DESKTOP_DEVICE("DesktopDevice", true),
+    STANDARD_SATELLITE("StandardSatellite", false),
+    TELEPORTING_SATELLITE("TeleportingSatellite", false),
+    RELAY_SATELLITE("RelaySatellite", false);
+
+    private static final int DEVICES = HANDHELD_DEVICE.bit() | LAPTOP_DEVICE.bit() | DESKTOP_DEVICE.bit();
+    private static final int SATELLITES = STANDARD_SATELLITE.bit() | TELEPORTING_SATELLITE.bit()
+            | RELAY_SATELLITE.bit();
+
+    private final String typeName;
+    private final boolean device;
+    private int allowedConnections;
+    private int directMask;
+    private int communicableMask;
+
+    static {
+        STANDARD_SATELLITE.allowedConnections = (DEVICES & ~DESKTOP_DEVICE.bit()) | SATELLITES;
+        TELEPORTING_SATELLITE.allowedConnections = DEVICES | SATELLITES;
+        RELAY_SATELLITE.allowedConnections = DEVICES | SATELLITES;
+
+        for (EntityKind kind : values()) {
+            kind.communicableMask = DEVICES | SATELLITES;
+            for (EntityKind other : values()) {
+                // the satellite's allowed connections decide whichever way round the pair is asked about
+                boolean linked = kind.device ? !other.device && (other.allowedConnections & kind.bit()) != 0
+                        : !other.device || (kind.allowedConnections & other.bit()) != 0;
+                if (linked) {
+                    kind.directMask |= other.bit();
+                }
+            }
+        }
+        STANDARD_SATELLITE.communicableMask &= ~DESKTOP_DEVICE.bit();
+        DESKTOP_DEVICE.communicableMask &= ~STANDARD_SATELLITE.bit();
+    }
+
+    EntityKind(String typeName, boolean device) {
+        this.typeName = typeName;
+        this.device = device;
+    }
+
+    /**
+     * @return the kind with the given type name, as passed to createDevice and createSatellite, or null if there
+     *         is no such kind
+     */
+    public static EntityKind fromTypeName(String typeName) {
+        for (EntityKind kind : values()) {
+            if (kind.typeName.equals(typeName)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public boolean isDevice() {
+        return device;
+    }
+
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return the bits of every kind this kind can be linked to directly
+     */
+    public int getDirectMask() {
+        return directMask;
+    }
+
+    public boolean canLinkDirectly(EntityKind other) {
+        return (directMask & other.bit()) != 0;
+    }
+
+    /**
+     * @return whether entities of the two kinds may talk at all, directly or through relays
+     */
+    public boolean canCommunicateWith(EntityKind other) {
+        return (communicableMask & other.bit()) != 0;
+    }
+
+    /**
+     * @return the type names of the kinds a satellite of this kind accepts connections from
+     */
+    public List<String> getAllowedConnections() {
+        List<String> names = new ArrayList<>();
+        for (EntityKind kind : values()) {
+            if ((allowedConnections & kind.bit()) != 0) {
+                names.add(kind.typeName);
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,194 @@
+package unsw.blackout;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+
+import static unsw.utils.MathsHelper.RADIUS_OF_JUPITER;
+
+/**
+ * Geometry of every satellite and device kept in flat arrays, one slot per entity.
+ *
+ * Positions are refreshed by the controller once per tick, which is also when the cartesian coordinates
+ * are worked out, so range checks never have to call cos or sin. Devices are stored at the radius of
+ * Jupiter since that is the height every range and visibility rule uses for them.
+ *
+ * Each slot also records the entity's kind, so range queries can pass a mask of the kinds they are interested
+ * in and skip every other slot before any geometry is looked at.
+ *
+ * The store also keeps track of which entities have been added, removed or moved since the link graph last
+ * asked, so links between entities that haven't changed can be carried over.
+ */
+public final class EntityStore {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final AngularIndex angularIndex = new AngularIndex();
+    private Set<String> changedIds = new HashSet<>();
+    private String[] ids = new String[16];
+    private EntityKind[] kinds = new EntityKind[16];
+    private int[] kindBits = new int[16];
+    private double[] heights = new double[16];
+    private double[] radians = new double[16];
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int size;
+
+    public void putSatellite(String id, EntityKind kind, double height, double radians) {
+        put(id, kind, height, radians);
+    }
+
+    public void putDevice(String id, EntityKind kind, double radians) {
+        put(id, kind, RADIUS_OF_JUPITER, radians);
+    }
+
+    public void remove(String id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return;
+        }
+        angularIndex.remove(slot);
+        ids[slot] = null;
+        kinds[slot] = null;
+        kindBits[slot] = 0;
+        changedIds.add(id);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * @return the slot holding the given entity, or -1 if it is not in the store
+     */
+    public int slotOf(String id) {
+        Integer slot = slots.get(id);
+        return slot == null ? -1 : slot;
+    }
+
+    public String idAt(int slot) {
+        return ids[slot];
+    }
+
+    public EntityKind kindAt(int slot) {
+        return kinds[slot];
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return the ids of every entity added, removed or moved since the last call
+     */
+    public Set<String> takeChangedIds() {
+        Set<String> changed = changedIds;
+        changedIds = new HashSet<>();
+        return changed;
+    }
+
+    /**
+     * Visits the slot of every satellite of a kind in kindMask that could be within range of the entity in the
+     * given slot.
+     */
+    public void forEachSatelliteNear(int slot, double range, int kindMask, IntConsumer action) {
+        angularIndex.forEachNear(false, heights[slot], radians[slot], range, nextSlot -> {
+            if ((kindBits[nextSlot] & kindMask) != 0) {
+                action.accept(nextSlot);
+            }
+        });
+    }
+
+    /**
+     * Visits the slot of every device of a kind in kindMask that could be within range of the entity in the given
+     * slot.
+     */
+    public void forEachDeviceNear(int slot, double range, int kindMask, IntConsumer action) {
+        angularIndex.forEachNear(true, heights[slot], radians[slot], range, nextSlot -> {
+            if ((kindBits[nextSlot] & kindMask) != 0) {
+                action.accept(nextSlot);
+            }
+        });
+    }
+
+    public boolean isColocated(int from, int to) {
+        return xs[from] == xs[to] && ys[from] == ys[to];
+    }
+
+    /**
+     * Checks that two entities are within range and that Jupiter is not in the way, giving the same answer
+     * as MathsHelper.getDistance and MathsHelper.isVisible called with the entities in the same order.
+     * Out of range pairs are rejected on the squared distance alone.
+     */
+    public boolean isLinked(int from, int to, double range) {
+        return isLinked(xs[from], ys[from], xs[to], ys[to], range);
+    }
+
+    /**
+     * The same check as isLinked for two points given by their cartesian coordinates.
+     */
+    static boolean isLinked(double ax, double ay, double bx, double by, double range) {
+        double a = (bx - ax) * (bx - ax) + (by - ay) * (by - ay);
+        if (a >= range * range || Math.sqrt(a) >= range) {
+            return false;
+        }
+
+        double b = 2 * (ax * (bx - ax) + ay * (by - ay));
+        double det = RADIUS_OF_JUPITER * RADIUS_OF_JUPITER * (a) - (ax * by - bx * ay) * (ax * by - bx * ay);
+        if (det <= 0) {
+            return true;
+        }
+
+        double sqrtDet = Math.sqrt(det);
+        double tPos = (-b + sqrtDet) / (2 * a);
+        double tNeg = (-b - sqrtDet) / (2 * a);
+        return !((0 <= tPos && tPos <= 1) || (0 <= tNeg && tNeg <= 1));
+    }
+
+    private void put(String id, EntityKind kind, double height, double angle) {
+        Integer existing = slots.get(id);
+        int slot;
+        if (existing != null) {
+            slot = existing;
+        } else if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            ensureCapacity(size + 1);
+            slot = size++;
+        }
+
+        double x = Math.cos(angle) * height;
+        double y = Math.sin(angle) * height;
+        if (existing == null || xs[slot] != x || ys[slot] != y) {
+            changedIds.add(id);
+        }
+
+        ids[slot] = id;
+        kinds[slot] = kind;
+        kindBits[slot] = kind.bit();
+        heights[slot] = height;
+        radians[slot] = angle;
+        xs[slot] = x;
+        ys[slot] = y;
+        slots.put(id, slot);
+        angularIndex.put(slot, kind.isDevice(), height, angle);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        kindBits = Arrays.copyOf(kindBits, newCapacity);
+        heights = Arrays.copyOf(heights, newCapacity);
+        radians = Arrays.copyOf(radians, newCapacity);
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+    }
+}
@@ -0,0 +1,88 @@
+package unsw.blackout;
+
+import java.util.List;
+import java.util.Map;
+
+import unsw.blackout.devices.Device;
+import unsw.blackout.satellites.Satellite;
+
+/**
+ * Works out how far the simulation can jump ahead without stepping tick by tick.
+ *
+ * Between events the only things that change are how many bytes each transfer has sent and where the moving
+ * devices are, so a run of quiet ticks can be applied in one go. A run ends at the next event. One kind of event
+ * is a transfer finishing, which changes how the other files on its link share the bandwidth. The other is a link
+ * going down, which aborts its transfers. Links only go down because their ends move, teleports and relay bounces
+ * included, so the predictor finds when each link could first go down from the satellites' closed-form positions
+ * and the run stops short of the earliest.
+ *
+ * Only direct links can be predicted this way. A link that needs a relay, or that has a device moving along
+ * slopes at one end, ends the run straight away and the controller steps that tick as usual. Devices moving
+ * anywhere else don't end the run, and the controller moves them along for every tick skipped.
+ */
+final class EventEngine {
+    private final Map<String, Device> deviceMap;
+    private final Map<String, Satellite> satelliteMap;
+    private final LinkTable linkTable;
+    private final SimulationClock clock;
+    private final LinkPredictor linkPredictor;
+
+    EventEngine(Map<String, Device> deviceMap, Map<String, Satellite> satelliteMap,
+            LinkTable linkTable, SimulationClock clock, LinkPredictor linkPredictor) {
+        this.deviceMap = deviceMap;
+        this.satelliteMap = satelliteMap;
+        this.linkTable = linkTable;
+        this.clock = clock;
+        this.linkPredictor = linkPredictor;
+    }
+
+    /**
+     * @return how many of the next ticks, up to limit, can be skipped with skip
+     */
+    long quietTicks(long limit) {
+        // a run can end on the tick a transfer finishes, but not go past it
+        long horizon = limit;
+        for (Link link : linkTable.links()) {
+            if (isMoving(link.getFromId()) || isMoving(link.getToId())) {
+                return 0;
+            }
+            List<File> files = link.getFiles();
+            for (File file : files) {
+                int bytes = file.rationedBytes(files.size(), deviceMap, satelliteMap);
+                horizon = Math.min(horizon, (file.getSize() - file.getByteSent() + bytes - 1) / bytes);
+            }
+        }
+
+        long now = clock.getTick();
+        for (Link link : linkTable.links()) {
+            if (horizon == 0) {
+                break;
+            }
+            horizon = linkPredictor.directlyLinkedFor(link.getFromId(), link.getToId(), now, horizon);
+        }
+        return horizon;
+    }
+
+    private boolean isMoving(String id) {
+        Device device = deviceMap.get(id);
+        return device != null && device.isMoving();
+    }
+
+    /**
+     * Moves the clock on and sends the bytes every transfer would have sent over the given number of ticks,
+     * which must be no more than quietTicks allowed. Moving devices are left to the caller.
+     */
+    void skip(long ticks) {
+        clock.advance(ticks);
+        for (Link link : linkTable.links()) {
+            List<File> files = link.getFiles();
+            int numberOfFiles = files.size();
+            for (File file : files) {
+                int bytes = file.rationedBytes(numberOfFiles, deviceMap, satelliteMap);
+                file.sendBytes((int) (ticks * bytes), deviceMap, satelliteMap);
+            }
+            files.removeIf(file -> file.getByteSent() >= file.getSize());
+        }
+        linkTable.removeEmptyLinks();
+    }
+}
@@ -3,30 +3,47 @@ package unsw.blackout;
 import java.util.Map;
 import java.util.List;
 
+import unsw.blackout.content.FileContent;
+import unsw.blackout.content.HeapContent;
 import unsw.blackout.devices.Device;
 import unsw.blackout.satellites.Satellite;
 import unsw.blackout.satellites.TeleportingSatellite;
 
+/**
+ * A file held by an entity. A file being received shares its sender's content and only records how much of it
+ * has arrived, so a transfer never copies the content. The part that has arrived is only cut out of the
+ * sender's content when someone asks for it.
+ *
+ * Where the content is kept is up to the controller's content store. Content rewritten after a transfer is
+ * aborted is always kept on the heap.
+ */
 public class File {
     private String filename;
-    private String content;
+    private FileContent content;
+    private int contentLength;
     private int size;
     private int byteSent;
     private String from;
     private String to;
+    private StorageCounters storage;
 
-    public File(String filename, String content, int size, String from) {
+    public File(String filename, FileContent content, int size, String from) {
         this.filename = filename;
         this.content = content;
+        this.contentLength = content.length();
         this.size = size;
         this.byteSent = size;
         this.from = from;
         this.to = null;
     }
 
-    public File(File file, String content, int size) {
+    /**
+     * Makes the receiver's copy of a file being sent, holding the first contentLength characters of its content.
+     */
+    public File(File file, int contentLength, int size) {
         this.filename = file.filename;
-        this.content = content;
+        this.content = file.content;
+        this.contentLength = contentLength;
         this.size = size;
         this.byteSent = file.byteSent;
         this.from = file.from;
@@ -34,6 +51,19 @@ public class File {
 
     }
 
+    /**
+     * Brings back a file exactly as it was checkpointed.
+     */
+    File(String filename, FileContent content, int contentLength, int size, int byteSent, String from, String to) {
+        this.filename = filename;
+        this.content = content;
+        this.contentLength = contentLength;
+        this.size = size;
+        this.byteSent = byteSent;
+        this.from = from;
+        this.to = to;
+    }
+
     public String getFrom() {
         return from;
     }
@@ -59,16 +89,28 @@ public class File {
     }
 
     public String getContent() {
+        return content.prefix(contentLength);
+    }
+
+    /**
+     * @return the whole content this file shares with its sender, of which it holds getContentLength characters
+     */
+    FileContent getSharedContent() {
         return content;
     }
 
+    int getContentLength() {
+        return contentLength;
+    }
+
     public String toString() {
-        return "File [filename=" + filename + ", content=" + content + ", size=" + size + ", byteSent=" + byteSent
+        return "File [filename=" + filename + ", content=" + getContent() + ", size=" + size + ", byteSent=" + byteSent
                 + ", from=" + from + ", to=" + to + "]";
     }
 
     public void setContent(String content) {
-        this.content = content;
+        this.content = new HeapContent(content);
+        this.contentLength = content.length();
     }
 
     public int getSize() {
@@ -76,7 +118,7 @@ public class File {
     }
 
     public void setSize(int size) {
-        this.size = size;
+        setProgress(size, byteSent);
     }
 
     public int getByteSent() {
@@ -84,167 +126,165 @@ public class File {
     }
 
     public void setByteSent(int byteSent) {
-        this.byteSent = byteSent;
+        setProgress(size, byteSent);
     }
 
-    public List<String> communicableEntitiesInRange(String id, Map<String, Device> deviceMap,
-            Map<String, Satellite> satelliteMap) {
-
-        if (deviceMap.containsKey(id)) {
-            return deviceMap.get(id).communicableEntitiesInRangeHelper(satelliteMap, deviceMap, id);
-        } else if (satelliteMap.containsKey(id)) {
-            return satelliteMap.get(id).communicableEntitiesInRangeHelper(satelliteMap, deviceMap, id);
-        } else {
-            return null;
+    private void setProgress(int newSize, int newByteSent) {
+        if (storage != null) {
+            storage.update(size, byteSent, newSize, newByteSent);
         }
+        size = newSize;
+        byteSent = newByteSent;
+    }
+
+    /**
+     * Starts reporting changes to this file's size and progress to the counters of the satellite holding it.
+     */
+    public void attachStorage(StorageCounters counters) {
+        storage = counters;
+        counters.add(this);
+    }
 
+    /**
+     * Stops reporting to the given counters, once the satellite holding this file has let go of it.
+     */
+    public void detachStorage(StorageCounters counters) {
+        counters.remove(this);
+        if (storage == counters) {
+            storage = null;
+        }
     }
 
-    public void transferFile(File file, List<File> files, Map<String, Device> deviceMap,
-            Map<String, Satellite> satelliteMap, List<File> filesToRemove) {
+    /**
+     * Moves this tick's share of bytes across the link. Only the receiving entity and this file are changed,
+     * so transfers to different receivers can run at the same time.
+     *
+     * @return false if the link has dropped and the transfer has to be aborted with abortTransfer
+     */
+    public boolean transferFile(File file, List<File> files, Map<String, Device> deviceMap,
+            Map<String, Satellite> satelliteMap, LinkGraph linkGraph, List<File> filesToRemove) {
         String to = file.getTo();
         String from = file.getFrom();
+        boolean inRange = linkGraph.canCommunicate(from, to);
 
-        if (communicableEntitiesInRange(from, deviceMap, satelliteMap).contains(to) && satelliteMap.containsKey(to)
-                && deviceMap.containsKey(from)) {
-
-            Satellite currSatellite = satelliteMap.get(to);
-            int maxReceiving = currSatellite.getGettingBytes();
-            int numberOfFiles = files.size();
-
-            int rationedBytes = maxReceiving / numberOfFiles;
-            rationedBytes = rationedBytes == 0 ? 1 : rationedBytes;
-
-            if (byteSent + rationedBytes > size) {
-                file.setByteSent(size);
-            } else {
-                file.setByteSent(byteSent + rationedBytes);
-            }
-
-            String newContent = file.getContent().substring(0, byteSent);
-            currSatellite.addFiletoSatellite(file, newContent, size);
-
-        } else if (communicableEntitiesInRange(from, deviceMap, satelliteMap).contains(to)
-                && deviceMap.containsKey(to)) {
-
-            Satellite currSatellite = satelliteMap.get(from);
-            int maxSending = currSatellite.getSendingBytes();
-            int numberOfFiles = files.size();
-
-            int rationedBytes = maxSending / numberOfFiles;
-            rationedBytes = rationedBytes == 0 ? 1 : rationedBytes;
-
-            if (byteSent + rationedBytes > size) {
-                file.setByteSent(size);
-            } else {
-                file.setByteSent(byteSent + rationedBytes);
-            }
-
-            Device currDevice = deviceMap.get(to);
-            String newContent = file.getContent().substring(0, byteSent);
-            currDevice.addFiletoDevice(file, newContent, size);
-
-        } else if (communicableEntitiesInRange(from, deviceMap, satelliteMap).contains(to)
-                && satelliteMap.containsKey(from) && satelliteMap.containsKey(to)) {
-
-            Satellite currSatellite = satelliteMap.get(to);
-            int numberOfFiles = files.size();
+        if (inRange) {
+            file.sendBytes(file.rationedBytes(files.size(), deviceMap, satelliteMap), deviceMap, satelliteMap);
+        }
 
-            int maxSending = satelliteMap.get(from).getSendingBytes();
-            int maxReceiving = satelliteMap.get(to).getGettingBytes();
+        if (byteSent >= size) {
 
-            int maxBandwidth = Math.min(maxSending, maxReceiving);
+            filesToRemove.add(file);
+            return true;
+        }
 
-            int rationedBytes = maxBandwidth / numberOfFiles;
-            rationedBytes = rationedBytes == 0 ? 1 : rationedBytes;
+        return inRange;
+    }
 
-            if (byteSent + rationedBytes > size) {
-                file.setByteSent(size);
-            } else {
-                file.setByteSent(byteSent + rationedBytes);
-            }
+    /**
+     * @return the bytes this file gets each tick when the link is shared between the given number of files
+     */
+    public int rationedBytes(int numberOfFiles, Map<String, Device> deviceMap, Map<String, Satellite> satelliteMap) {
+        int bandwidth;
+        if (satelliteMap.containsKey(to) && deviceMap.containsKey(from)) {
+            bandwidth = satelliteMap.get(to).getGettingBytes();
+        } else if (deviceMap.containsKey(to)) {
+            bandwidth = satelliteMap.get(from).getSendingBytes();
+        } else {
+            bandwidth = Math.min(satelliteMap.get(from).getSendingBytes(), satelliteMap.get(to).getGettingBytes());
+        }
 
-            String newContent = file.getContent().substring(0, byteSent);
-            currSatellite.addFiletoSatellite(file, newContent, size);
+        int rationedBytes = bandwidth / numberOfFiles;
+        return rationedBytes == 0 ? 1 : rationedBytes;
+    }
 
+    /**
+     * Moves up to the given number of bytes across and gives the receiver a copy holding everything sent so far.
+     */
+    public void sendBytes(int bytes, Map<String, Device> deviceMap, Map<String, Satellite> satelliteMap) {
+        setProgress(size, Math.min(size, byteSent + bytes));
+        if (satelliteMap.containsKey(to)) {
+            satelliteMap.get(to).addFiletoSatellite(this, byteSent, size);
+        } else {
+            deviceMap.get(to).addFiletoDevice(this, byteSent, size);
         }
+    }
 
-        if (byteSent >= size) {
+    /**
+     * Cleans up a transfer whose link dropped, which touches both the sender and the receiver.
+     */
+    public void abortTransfer(File file, Map<String, Device> deviceMap, Map<String, Satellite> satelliteMap,
+            List<File> filesToRemove) {
+        String to = file.getTo();
+        String from = file.getFrom();
 
-            filesToRemove.add(file);
-            return;
+        Satellite currSatellite = satelliteMap.get(to);
+        Satellite sendingSatellite = satelliteMap.get(from);
+        if (currSatellite == null) {
+            currSatellite = satelliteMap.get(from);
         }
-
-        if (!communicableEntitiesInRange(from, deviceMap, satelliteMap).contains(to)) {
-            Satellite currSatellite = satelliteMap.get(to);
-            Satellite sendingSatellite = satelliteMap.get(from);
-            if (currSatellite == null) {
-                currSatellite = satelliteMap.get(from);
+        if (currSatellite instanceof TeleportingSatellite && deviceMap.containsKey(from)
+                && satelliteMap.containsKey(to)) {
+            if (((TeleportingSatellite) currSatellite).isHasTeleported()) {
+                File fileToBeModified = deviceMap.get(from).getFilesMap().get(file.getFilename());
+                String contentWithNoTs = fileToBeModified.getContent().replaceAll("[Tt]", "");
+                fileToBeModified.setContent(contentWithNoTs);
+                fileToBeModified.setByteSent(contentWithNoTs.length());
+                fileToBeModified.setSize(contentWithNoTs.length());
             }
-            if (currSatellite instanceof TeleportingSatellite && deviceMap.containsKey(from)
-                    && satelliteMap.containsKey(to)) {
-                if (((TeleportingSatellite) currSatellite).isHasTeleported()) {
-                    File fileToBeModified = deviceMap.get(from).getFilesMap().get(file.getFilename());
-                    String contentWithNoTs = fileToBeModified.getContent().replaceAll("[Tt]", "");
-                    fileToBeModified.setContent(contentWithNoTs);
-                    fileToBeModified.setByteSent(contentWithNoTs.length());
-                    fileToBeModified.setSize(contentWithNoTs.length());
-                }
 
-                currSatellite.removeFiles(file);
-                filesToRemove.add(file);
-                return;
+            currSatellite.removeFiles(file);
+            filesToRemove.add(file);
+            return;
 
-            } else if ((currSatellite instanceof TeleportingSatellite
-                    || sendingSatellite instanceof TeleportingSatellite)
-                    && ((satelliteMap.containsKey(from) && deviceMap.containsKey(to))
-                            || (satelliteMap.containsKey(from) && satelliteMap.containsKey(to)))) {
+        } else if ((currSatellite instanceof TeleportingSatellite
+                || sendingSatellite instanceof TeleportingSatellite)
+                && ((satelliteMap.containsKey(from) && deviceMap.containsKey(to))
+                        || (satelliteMap.containsKey(from) && satelliteMap.containsKey(to)))) {
 
-                TeleportingSatellite teleportingSatellite = null;
+            TeleportingSatellite teleportingSatellite = null;
 
-                if (currSatellite instanceof TeleportingSatellite) {
-                    teleportingSatellite = (TeleportingSatellite) currSatellite;
-                } else if (sendingSatellite instanceof TeleportingSatellite) {
-                    teleportingSatellite = (TeleportingSatellite) sendingSatellite;
-                }
+            if (currSatellite instanceof TeleportingSatellite) {
+                teleportingSatellite = (TeleportingSatellite) currSatellite;
+            } else if (sendingSatellite instanceof TeleportingSatellite) {
+                teleportingSatellite = (TeleportingSatellite) sendingSatellite;
+            }
 
-                if (((TeleportingSatellite) teleportingSatellite).isHasTeleported()) {
-                    File fileToBeModified = satelliteMap.get(from).getFilesMap().get(file.getFilename());
+            if (teleportingSatellite.isHasTeleported()) {
+                File fileToBeModified = satelliteMap.get(from).getFilesMap().get(file.getFilename());
 
-                    String contentWithNoTs = fileToBeModified.getContent().substring(byteSent, size).replaceAll("[Tt]",
-                            "");
+                String contentWithNoTs = fileToBeModified.getContent().substring(byteSent, size).replaceAll("[Tt]",
+                        "");
 
-                    File sent = null;
-                    if (satelliteMap.get(to) != null) {
-                        sent = satelliteMap.get(to).getFilesMap().get(filename);
-                        sent.setContent(content.substring(0, byteSent) + contentWithNoTs);
-                    } else if (deviceMap.get(to) != null) {
-                        sent = deviceMap.get(to).getFilesMap().get(filename);
-                        sent.setContent(content.substring(0, byteSent) + contentWithNoTs);
-                    }
+                File sent = null;
+                if (satelliteMap.get(to) != null) {
+                    sent = satelliteMap.get(to).getFilesMap().get(filename);
+                    sent.setContent(getContent().substring(0, byteSent) + contentWithNoTs);
+                } else if (deviceMap.get(to) != null) {
+                    sent = deviceMap.get(to).getFilesMap().get(filename);
+                    sent.setContent(getContent().substring(0, byteSent) + contentWithNoTs);
+                }
 
-                    int size = content.substring(0, byteSent).length() + contentWithNoTs.length();
+                int size = getContent().substring(0, byteSent).length() + contentWithNoTs.length();
 
-                    sent.setSize(size);
-                    sent.setByteSent(size);
+                sent.setSize(size);
+                sent.setByteSent(size);
 
-                }
+            }
 
-                teleportingSatellite.removeFiles(file);
-                filesToRemove.add(file);
-                return;
+            teleportingSatellite.removeFiles(file);
+            filesToRemove.add(file);
+            return;
 
-            } else if (satelliteMap.containsKey(to) && deviceMap.containsKey(from)) {
+        } else if (satelliteMap.containsKey(to) && deviceMap.containsKey(from)) {
 
-                deviceMap.get(from).removeFiles(file);
-                satelliteMap.get(to).removeFiles(file);
-                filesToRemove.add(file);
-            } else if (satelliteMap.containsKey(from) && deviceMap.containsKey(to)) {
+            deviceMap.get(from).removeFiles(file);
+            satelliteMap.get(to).removeFiles(file);
+            filesToRemove.add(file);
+        } else if (satelliteMap.containsKey(from) && deviceMap.containsKey(to)) {
 
-                deviceMap.get(to).removeFiles(file);
-                satelliteMap.get(from).removeFiles(file);
-                filesToRemove.add(file);
-            }
+            deviceMap.get(to).removeFiles(file);
+            satelliteMap.get(from).removeFiles(file);
+            filesToRemove.add(file);
         }
     }
 }
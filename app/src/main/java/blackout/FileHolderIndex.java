@@ -0,0 +1,60 @@
+package unsw.blackout;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which entities may be holding files that were sent from or to another entity, so removing an
+ * entity only has to look through the files of the entities it has exchanged files with.
+ *
+ * Files only pick up a sender and receiver in sendFile, and the copies a receiver is given each tick keep them,
+ * so the index is recorded there and is never smaller than the truth. It can be bigger, since a file that is
+ * sent on again is given new ends, but looking through an extra holder's files finds nothing to remove.
+ */
+final class FileHolderIndex {
+    private final Map<String, Set<String>> holdersByEntity = new HashMap<>();
+    private final Map<String, Set<String>> entitiesByHolder = new HashMap<>();
+
+    /**
+     * Records that the given holder may have a file sent from or to the given entity.
+     */
+    void record(String entityId, String holderId) {
+        if (entityId.equals(holderId)) {
+            return;
+        }
+        holdersByEntity.computeIfAbsent(entityId, key -> new HashSet<>()).add(holderId);
+        entitiesByHolder.computeIfAbsent(holderId, key -> new HashSet<>()).add(entityId);
+    }
+
+    /**
+     * Forgets the given entity both as an end of files and as a holder of them.
+     *
+     * @return the entities that may be holding files sent from or to it
+     */
+    Set<String> removeEntity(String id) {
+        Set<String> entities = entitiesByHolder.remove(id);
+        if (entities != null) {
+            entities.forEach(entityId -> removeEntry(holdersByEntity, entityId, id));
+        }
+
+        Set<String> holders = holdersByEntity.remove(id);
+        if (holders == null) {
+            return Collections.emptySet();
+        }
+        holders.forEach(holderId -> removeEntry(entitiesByHolder, holderId, id));
+        return holders;
+    }
+
+    private static void removeEntry(Map<String, Set<String>> index, String key, String value) {
+        Set<String> values = index.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
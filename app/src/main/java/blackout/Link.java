@@ -0,0 +1,68 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A one-way link between two entities and the files being transferred along it, in the order they were sent.
+ *
+ * Links are only ever made by a LinkTable, which holds at most one link for each pair of ends. The hash is worked
+ * out once from both ends, so keeping links in hashed collections never rehashes the ids.
+ */
+public final class Link {
+    private final String fromId;
+    private final String toId;
+    private final int hash;
+    private final List<File> files = new ArrayList<>();
+
+    Link(String fromId, String toId) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.hash = 31 * fromId.hashCode() + toId.hashCode();
+    }
+
+    public String getFromId() {
+        return fromId;
+    }
+
+    public String getToId() {
+        return toId;
+    }
+
+    /**
+     * @return the files in flight along this link, which callers may add to and remove from
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return whether the given entity is either end of this link
+     */
+    public boolean touches(String id) {
+        return fromId.equals(id) || toId.equals(id);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        Link other = (Link) obj;
+        return hash == other.hash && fromId.equals(other.fromId) && toId.equals(other.toId);
+    }
+
+    @Override
+    public String toString() {
+        return "Link [fromId=" + fromId + ", toId=" + toId + ", files=" + files.size() + "]";
+    }
+}
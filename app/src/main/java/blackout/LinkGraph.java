@@ -0,0 +1,196 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import unsw.blackout.devices.Device;
+import unsw.blackout.satellites.RelaySatellite;
+import unsw.blackout.satellites.Satellite;
+
+/**
+ * Snapshot of which entities can communicate with each other for a single tick.
+ *
+ * The controller builds a new graph once entities have finished moving, and every range lookup for the
+ * rest of the tick (transfers, sendFile and communicableEntitiesInRange) reads from it. Each entity's
+ * links are worked out the first time they are asked for and then reused until the graph is replaced.
+ *
+ * Relays are expanded breadth first with a visited set, so chains and loops of relays are only walked
+ * once. The entities reachable through a relay are the same whoever is asking, so each relay's closure
+ * is memoised and shared between queries.
+ *
+ * Direct links are carried over from the previous graph. An entity that hasn't changed since then keeps its
+ * old links to other unchanged entities, and only its pairs with entities that were added, removed or moved
+ * are checked again. When too much of the world has changed that costs more than asking the entity store, so
+ * every entity's links are worked out from scratch instead.
+ *
+ * Lookups may come from several transfer threads at once, in which case two threads can both work out the
+ * same entry and the first one stored wins.
+ */
+public final class LinkGraph {
+    // carrying links over costs a check per changed entity, asking the store costs a check per nearby entity
+    private static final int CHANGED_FRACTION_LIMIT = 8;
+
+    private final Map<String, Satellite> satelliteMap;
+    private final Map<String, Device> deviceMap;
+    private final EntityStore entityStore;
+    private final int maxRelayHops;
+    private final Map<String, List<String>> previousDirectLinks;
+    private final Set<String> changedIds;
+    private final Map<String, List<String>> directLinks = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> relayClosures = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> links = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxRelayHops        the most relays a link may pass through, 0 disables relaying
+     * @param previousDirectLinks the direct links worked out by the previous graph
+     * @param changedIds          every entity added, removed or moved since the previous graph was built
+     */
+    public LinkGraph(Map<String, Satellite> satelliteMap, Map<String, Device> deviceMap, EntityStore entityStore,
+            int maxRelayHops, Map<String, List<String>> previousDirectLinks, Set<String> changedIds) {
+        this.satelliteMap = satelliteMap;
+        this.deviceMap = deviceMap;
+        this.entityStore = entityStore;
+        this.maxRelayHops = maxRelayHops;
+        this.previousDirectLinks = previousDirectLinks;
+        this.changedIds = changedIds;
+    }
+
+    /**
+     * @return the direct links worked out so far, for the next graph to carry over
+     */
+    Map<String, List<String>> getDirectLinks() {
+        return directLinks;
+    }
+
+    /**
+     * @return the ids the given entity can communicate with, or null if the entity does not exist
+     */
+    public List<String> communicableEntitiesInRange(String id) {
+        List<String> entities = links.get(id);
+        if (entities != null) {
+            return entities;
+        }
+
+        List<String> direct = directLinks(id);
+        if (direct == null) {
+            return null;
+        }
+
+        Set<String> reachable = new LinkedHashSet<>(direct);
+        if (maxRelayHops > 0) {
+            direct.stream().filter(this::isRelay).forEach(relayId -> reachable.addAll(relayClosure(relayId)));
+        }
+        reachable.remove(id);
+
+        EntityKind kind = entityStore.kindAt(entityStore.slotOf(id));
+        reachable.removeIf(element -> !kind.canCommunicateWith(entityStore.kindAt(entityStore.slotOf(element))));
+
+        entities = Collections.unmodifiableList(new ArrayList<>(reachable));
+        List<String> existing = links.putIfAbsent(id, entities);
+        return existing == null ? entities : existing;
+    }
+
+    public boolean canCommunicate(String fromId, String toId) {
+        List<String> entities = communicableEntitiesInRange(fromId);
+        return entities != null && entities.contains(toId);
+    }
+
+    /**
+     * @return the entities in range of the given entity without going through any relays
+     */
+    private List<String> directLinks(String id) {
+        List<String> entities = directLinks.get(id);
+        if (entities != null) {
+            return entities;
+        }
+
+        List<String> previous = previousDirectLinks.get(id);
+        if (previous != null && !changedIds.contains(id)
+                && changedIds.size() * CHANGED_FRACTION_LIMIT < entityStore.size()) {
+            entities = new ArrayList<>();
+            for (String entityId : previous) {
+                if (!changedIds.contains(entityId)) {
+                    entities.add(entityId);
+                }
+            }
+            for (String changedId : changedIds) {
+                if (isDirectlyLinked(id, changedId)) {
+                    entities.add(changedId);
+                }
+            }
+        } else if (deviceMap.containsKey(id)) {
+            entities = deviceMap.get(id).entitiesInDirectRangeHelper(entityStore);
+        } else if (satelliteMap.containsKey(id)) {
+            entities = satelliteMap.get(id).entitiesInDirectRangeHelper(entityStore);
+        } else {
+            return null;
+        }
+
+        List<String> existing = directLinks.putIfAbsent(id, entities);
+        return existing == null ? entities : existing;
+    }
+
+    /**
+     * @return everything reachable from a relay that is itself one hop away from the asking entity
+     */
+    private Set<String> relayClosure(String relayId) {
+        Set<String> closure = relayClosures.get(relayId);
+        if (closure != null) {
+            return closure;
+        }
+
+        closure = new LinkedHashSet<>();
+        Set<String> visited = new HashSet<>();
+        visited.add(relayId);
+        List<String> frontier = Collections.singletonList(relayId);
+
+        for (int hops = 1; !frontier.isEmpty(); hops++) {
+            List<String> nextFrontier = new ArrayList<>();
+            for (String relay : frontier) {
+                for (String entityId : directLinks(relay)) {
+                    closure.add(entityId);
+                    if (hops < maxRelayHops && isRelay(entityId) && visited.add(entityId)) {
+                        nextFrontier.add(entityId);
+                    }
+                }
+            }
+            frontier = nextFrontier;
+        }
+
+        Set<String> existing = relayClosures.putIfAbsent(relayId, closure);
+        return existing == null ? closure : existing;
+    }
+
+    /**
+     * Checks a single pair the same way the entities' direct range helpers do.
+     */
+    private boolean isDirectlyLinked(String id, String otherId) {
+        int slot = entityStore.slotOf(id);
+        int otherSlot = entityStore.slotOf(otherId);
+        if (otherSlot < 0 || id.equals(otherId)) {
+            return false;
+        }
+
+        EntityKind kind = entityStore.kindAt(slot);
+        EntityKind otherKind = entityStore.kindAt(otherSlot);
+        if (!kind.canLinkDirectly(otherKind)) {
+            return false;
+        } else if (kind.isDevice()) {
+            return entityStore.isLinked(otherSlot, slot, deviceMap.get(id).getMaxRange());
+        } else if (otherKind.isDevice()) {
+            return entityStore.isLinked(slot, otherSlot, satelliteMap.get(id).getMaxRange());
+        }
+        return !entityStore.isColocated(slot, otherSlot) && entityStore.isLinked(slot, otherSlot,
+                satelliteMap.get(id).getMaxRange());
+    }
+
+    private boolean isRelay(String id) {
+        return satelliteMap.get(id) instanceof RelaySatellite;
+    }
+}
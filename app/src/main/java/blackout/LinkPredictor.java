@@ -0,0 +1,189 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import unsw.blackout.devices.Device;
+import unsw.blackout.satellites.Satellite;
+import unsw.response.models.ContactWindowResponse;
+
+import static unsw.utils.MathsHelper.RADIUS_OF_JUPITER;
+
+/**
+ * Answers questions about direct links at ticks other than the current one, using the satellites' closed-form
+ * positions. Devices moving along slopes have no closed form, so they are never asked about.
+ *
+ * Two entities are in contact while the angle between them is under the contact angle, the smaller of the angle
+ * at which one drops below the other's horizon and the angle at which they go out of range. Contact windows and
+ * how long links last are found by jumping straight to the tick where the angle between the two could first
+ * reach the edge of the contact angle, then checking the exact link rule there. Only the ticks either side of a
+ * window's edges, and teleports, are ever checked.
+ */
+final class LinkPredictor {
+    // far enough either side of the contact angle that rounding can't change the answer
+    private static final double MARGIN = 1e-6;
+
+    private final Map<String, Device> deviceMap;
+    private final Map<String, Satellite> satelliteMap;
+
+    LinkPredictor(Map<String, Device> deviceMap, Map<String, Satellite> satelliteMap) {
+        this.deviceMap = deviceMap;
+        this.satelliteMap = satelliteMap;
+    }
+
+    /**
+     * Gives the same answer as the entity helpers' direct range checks, at any tick while no device moves.
+     */
+    boolean isDirectlyLinked(String fromId, String toId, long tick) {
+        Satellite fromSatellite = satelliteMap.get(fromId);
+        Satellite toSatellite = satelliteMap.get(toId);
+
+        if (fromSatellite == null) {
+            Device device = deviceMap.get(fromId);
+            return device.getKind().canLinkDirectly(toSatellite.getKind())
+                    && isLinked(toSatellite, tick, device, device.getMaxRange());
+        } else if (toSatellite == null) {
+            Device device = deviceMap.get(toId);
+            return fromSatellite.getKind().canLinkDirectly(device.getKind())
+                    && isLinked(fromSatellite, tick, device, fromSatellite.getMaxRange());
+        }
+
+        double from = fromSatellite.getSatelliteRadiansAt(tick);
+        double to = toSatellite.getSatelliteRadiansAt(tick);
+        double ax = Math.cos(from) * fromSatellite.getSatelliteHeight();
+        double ay = Math.sin(from) * fromSatellite.getSatelliteHeight();
+        double bx = Math.cos(to) * toSatellite.getSatelliteHeight();
+        double by = Math.sin(to) * toSatellite.getSatelliteHeight();
+        return !(ax == bx && ay == by) && EntityStore.isLinked(ax, ay, bx, by, fromSatellite.getMaxRange());
+    }
+
+    /**
+     * Finds how long a direct link lasts without checking every tick, for links between satellites as well as
+     * between a satellite and a device.
+     *
+     * @return how many of the ticks after fromTick, up to limit, the two stay directly linked for without a break
+     */
+    long directlyLinkedFor(String fromId, String toId, long fromTick, long limit) {
+        Satellite fromSatellite = satelliteMap.get(fromId);
+        Satellite toSatellite = satelliteMap.get(toId);
+        Satellite satellite = fromSatellite != null ? fromSatellite : toSatellite;
+        // the other end, or null if it is a device, which stays where it is
+        Satellite peer = fromSatellite != null ? toSatellite : null;
+        Device device = peer == null ? deviceMap.get(fromSatellite == null ? fromId : toId) : null;
+
+        double range = fromSatellite == null ? device.getMaxRange() : fromSatellite.getMaxRange();
+        double peerHeight = peer == null ? RADIUS_OF_JUPITER : peer.getSatelliteHeight();
+        double contactAngle = contactAngle(satellite.getSatelliteHeight(), peerHeight, range);
+        double step = satellite.getAngularVelocity() + (peer == null ? 0 : peer.getAngularVelocity());
+        // two satellites at the same height can't link while in the same place either
+        boolean samePlaceBreaks = peer != null && peerHeight == satellite.getSatelliteHeight();
+
+        long lastTick = fromTick + limit;
+        long tick = fromTick + 1;
+        while (tick <= lastTick) {
+            if (!isDirectlyLinked(fromId, toId, tick)) {
+                return tick - 1 - fromTick;
+            }
+
+            double angle = angleBetween(satellite.getSatelliteRadiansAt(tick),
+                    peer == null ? device.getDeviceRadians() : peer.getSatelliteRadiansAt(tick));
+            double gap = samePlaceBreaks ? Math.min(angle, contactAngle - angle) : contactAngle - angle;
+            long unchanged = gap > MARGIN ? (long) Math.min((gap - MARGIN) / step, lastTick - tick) : 0;
+            long next = Math.min(tick + unchanged + 1, satellite.nextJumpAfter(tick));
+            tick = peer == null ? next : Math.min(next, peer.nextJumpAfter(tick));
+        }
+        return limit;
+    }
+
+    /**
+     * Finds when the given entity is directly in contact with its peers, satellites for a device and devices for
+     * a satellite, using the same ranges as communicableEntitiesInRange.
+     *
+     * @return the windows between the two ticks inclusive, counted from fromTick and ordered by start tick
+     */
+    List<ContactWindowResponse> contactWindows(String id, long fromTick, long toTick) {
+        List<ContactWindowResponse> windows = new ArrayList<>();
+
+        if (deviceMap.containsKey(id)) {
+            Device device = deviceMap.get(id);
+            if (!device.isMoving()) {
+                satelliteMap.values().forEach(satellite -> addContactWindows(windows, satellite.getSatelliteId(),
+                        satellite, device, device.getMaxRange(), fromTick, toTick));
+            }
+        } else if (satelliteMap.containsKey(id)) {
+            Satellite satellite = satelliteMap.get(id);
+            deviceMap.values().stream().filter(device -> !device.isMoving())
+                    .forEach(device -> addContactWindows(windows, device.getDeviceId(), satellite, device,
+                            satellite.getMaxRange(), fromTick, toTick));
+        }
+
+        windows.sort(Comparator.comparingLong(ContactWindowResponse::getStartTick)
+                .thenComparing(ContactWindowResponse::getPeerId));
+        return windows;
+    }
+
+    private void addContactWindows(List<ContactWindowResponse> windows, String peerId, Satellite satellite,
+            Device device, double range, long fromTick, long toTick) {
+        if (!satellite.getKind().canLinkDirectly(device.getKind())) {
+            return;
+        }
+
+        double contactAngle = contactAngle(satellite.getSatelliteHeight(), RADIUS_OF_JUPITER, range);
+        double deviceRadians = device.getDeviceRadians();
+        double step = satellite.getAngularVelocity();
+
+        long start = -1;
+        long tick = fromTick;
+        while (true) {
+            boolean linked = isLinked(satellite, tick, device, range);
+            if (linked && start < 0) {
+                start = tick;
+            } else if (!linked && start >= 0) {
+                windows.add(new ContactWindowResponse(peerId, start - fromTick, tick - 1 - fromTick));
+                start = -1;
+            }
+            if (tick == toTick) {
+                break;
+            }
+
+            // moving a step a tick, the satellite can't cross the edge of the contact angle any sooner than this
+            double gap = Math.abs(contactAngle - angleBetween(satellite.getSatelliteRadiansAt(tick), deviceRadians));
+            long unchanged = gap > MARGIN ? (long) ((gap - MARGIN) / step) : 0;
+            tick = Math.min(toTick, Math.min(tick + unchanged + 1, satellite.nextJumpAfter(tick)));
+        }
+
+        if (start >= 0) {
+            windows.add(new ContactWindowResponse(peerId, start - fromTick, toTick - fromTick));
+        }
+    }
+
+    private static boolean isLinked(Satellite satellite, long tick, Device device, double range) {
+        double satelliteRadians = satellite.getSatelliteRadiansAt(tick);
+        double deviceRadians = device.getDeviceRadians();
+        return EntityStore.isLinked(Math.cos(satelliteRadians) * satellite.getSatelliteHeight(),
+                Math.sin(satelliteRadians) * satellite.getSatelliteHeight(),
+                Math.cos(deviceRadians) * RADIUS_OF_JUPITER, Math.sin(deviceRadians) * RADIUS_OF_JUPITER, range);
+    }
+
+    /**
+     * @return the largest angle between two entities at the given heights that can still be in contact, where a
+     *         device is at the radius of Jupiter
+     */
+    private static double contactAngle(double height, double peerHeight, double range) {
+        // the line between them just touches Jupiter when each is this far round from where it touches
+        double aboveHorizon = Math.acos(Math.min(1, RADIUS_OF_JUPITER / height))
+                + Math.acos(Math.min(1, RADIUS_OF_JUPITER / peerHeight));
+
+        // law of cosines for the distance between the two
+        double cos = (peerHeight * peerHeight + height * height - range * range) / (2 * peerHeight * height);
+        double inRange = cos >= 1 ? 0 : Math.acos(Math.max(-1, cos));
+        return Math.min(aboveHorizon, inRange);
+    }
+
+    private static double angleBetween(double a, double b) {
+        double angle = Math.abs((a - b) % (2 * Math.PI));
+        return angle > Math.PI ? 2 * Math.PI - angle : angle;
+    }
+}
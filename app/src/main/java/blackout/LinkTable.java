@@ -0,0 +1,102 @@
+package unsw.blackout;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every link with files in flight, indexed by both of its ends.
+ *
+ * Looking a link up by its ends goes through the sending entity's outgoing links, so nothing is allocated, and
+ * removing an entity only touches the links it is an end of. Links are kept in the order they were made, which
+ * is the order transfers are stepped in.
+ */
+public final class LinkTable {
+    private final Set<Link> links = new LinkedHashSet<>();
+    private final Map<String, Map<String, Link>> outgoing = new HashMap<>();
+    private final Map<String, Map<String, Link>> incoming = new HashMap<>();
+
+    /**
+     * @return the link from one entity to another, or null if nothing is in flight between them
+     */
+    public Link get(String fromId, String toId) {
+        Map<String, Link> fromLinks = outgoing.get(fromId);
+        return fromLinks == null ? null : fromLinks.get(toId);
+    }
+
+    /**
+     * @return the link from one entity to another, made empty if there wasn't one already
+     */
+    public Link getOrCreate(String fromId, String toId) {
+        Link link = get(fromId, toId);
+        if (link == null) {
+            link = new Link(fromId, toId);
+            links.add(link);
+            outgoing.computeIfAbsent(fromId, key -> new HashMap<>()).put(toId, link);
+            incoming.computeIfAbsent(toId, key -> new HashMap<>()).put(fromId, link);
+        }
+        return link;
+    }
+
+    /**
+     * @return every link, in the order they were made
+     */
+    public Collection<Link> links() {
+        return Collections.unmodifiableSet(links);
+    }
+
+    public boolean isEmpty() {
+        return links.isEmpty();
+    }
+
+    /**
+     * Drops every link the given entity is an end of, along with the files in flight on them.
+     */
+    public void removeEntity(String id) {
+        Map<String, Link> fromLinks = outgoing.remove(id);
+        if (fromLinks != null) {
+            fromLinks.values().forEach(this::remove);
+        }
+        Map<String, Link> toLinks = incoming.remove(id);
+        if (toLinks != null) {
+            toLinks.values().forEach(this::remove);
+        }
+    }
+
+    /**
+     * Drops every link that has no files left in flight.
+     */
+    public void removeEmptyLinks() {
+        links.removeIf(link -> {
+            if (!link.getFiles().isEmpty()) {
+                return false;
+            }
+            unindex(link);
+            return true;
+        });
+    }
+
+    private void remove(Link link) {
+        if (links.remove(link)) {
+            unindex(link);
+        }
+    }
+
+    private void unindex(Link link) {
+        removeIndexEntry(outgoing, link.getFromId(), link.getToId());
+        removeIndexEntry(incoming, link.getToId(), link.getFromId());
+    }
+
+    private static void removeIndexEntry(Map<String, Map<String, Link>> index, String id, String otherId) {
+        Map<String, Link> entityLinks = index.get(id);
+        if (entityLinks != null) {
+            entityLinks.remove(otherId);
+            if (entityLinks.isEmpty()) {
+                index.remove(id);
+            }
+        }
+    }
+}
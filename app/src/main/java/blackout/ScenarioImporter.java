@@ -0,0 +1,325 @@
+package unsw.blackout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import unsw.utils.Angle;
+
+/**
+ * Reads a scenario and makes every satellite, device, slope and file in it through the controller's own calls,
+ * one record at a time as it is parsed, so the scenario is never held in memory as a whole.
+ *
+ * A JSON scenario is an object holding any of the arrays "satellites", "devices", "slopes" and "files", in any
+ * order and as often as needed. Their elements have the same fields as the matching REST calls:
+ *
+ * <pre>
+ * {"satellites": [{"satelliteId": "S1", "type": "RelaySatellite", "height": 80000, "position": 1.5}],
+ *  "devices": [{"deviceId": "D1", "type": "LaptopDevice", "position": 0.25, "isMoving": true}],
+ *  "slopes": [{"startAngle": 10, "endAngle": 30, "gradient": 2}],
+ *  "files": [{"deviceId": "D1", "fileName": "hello", "content": "Hello World"}]}
+ * </pre>
+ *
+ * A CSV scenario has one record per line, made of the kind of record followed by the same fields in the same
+ * order, with isMoving optional. Fields holding commas, quotes or line breaks are quoted, with quotes inside
+ * them doubled:
+ *
+ * <pre>
+ * satellite,S1,RelaySatellite,80000,1.5
+ * device,D1,LaptopDevice,0.25,true
+ * slope,10,30,2
+ * file,D1,hello,"Hello, World"
+ * </pre>
+ *
+ * Positions are in radians, as they are everywhere else in the REST API. A scenario starting with { is read as
+ * JSON and anything else as CSV.
+ */
+final class ScenarioImporter {
+    private final BlackoutController controller;
+    private int records;
+
+    ScenarioImporter(BlackoutController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * @return the number of records imported
+     * @throws IOException if the reader fails or the scenario is malformed, once every record before the bad one
+     *                     has been imported
+     */
+    int importScenario(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        int first;
+        do {
+            in.mark(1);
+            first = in.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        in.reset();
+
+        try {
+            if (first == '{') {
+                importJson(new JsonReader(in));
+            } else {
+                importCsv(in);
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            IOException malformed = malformed(e.getMessage());
+            malformed.initCause(e);
+            throw malformed;
+        }
+        return records;
+    }
+
+    private void importJson(JsonReader in) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String section = in.nextName();
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginObject();
+                switch (section) {
+                case "satellites":
+                    importSatellite(in);
+                    break;
+                case "devices":
+                    importDevice(in);
+                    break;
+                case "slopes":
+                    importSlope(in);
+                    break;
+                case "files":
+                    importFile(in);
+                    break;
+                default:
+                    throw malformed("unknown section " + section);
+                }
+                in.endObject();
+            }
+            in.endArray();
+        }
+        in.endObject();
+        if (in.peek() != JsonToken.END_DOCUMENT) {
+            throw malformed("more than one object");
+        }
+    }
+
+    private void importSatellite(JsonReader in) throws IOException {
+        String satelliteId = null;
+        String type = null;
+        Double height = null;
+        Double position = null;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "satelliteId":
+                satelliteId = in.nextString();
+                break;
+            case "type":
+                type = in.nextString();
+                break;
+            case "height":
+                height = in.nextDouble();
+                break;
+            case "position":
+                position = in.nextDouble();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        createSatellite(require(satelliteId, "satelliteId"), require(type, "type"), require(height, "height"),
+                require(position, "position"));
+    }
+
+    private void importDevice(JsonReader in) throws IOException {
+        String deviceId = null;
+        String type = null;
+        Double position = null;
+        boolean isMoving = false;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "deviceId":
+                deviceId = in.nextString();
+                break;
+            case "type":
+                type = in.nextString();
+                break;
+            case "position":
+                position = in.nextDouble();
+                break;
+            case "isMoving":
+                isMoving = in.nextBoolean();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        createDevice(require(deviceId, "deviceId"), require(type, "type"), require(position, "position"), isMoving);
+    }
+
+    private void importSlope(JsonReader in) throws IOException {
+        Integer startAngle = null;
+        Integer endAngle = null;
+        Integer gradient = null;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "startAngle":
+                startAngle = in.nextInt();
+                break;
+            case "endAngle":
+                endAngle = in.nextInt();
+                break;
+            case "gradient":
+                gradient = in.nextInt();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        createSlope(require(startAngle, "startAngle"), require(endAngle, "endAngle"), require(gradient, "gradient"));
+    }
+
+    private void importFile(JsonReader in) throws IOException {
+        String deviceId = null;
+        String fileName = null;
+        String content = null;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "deviceId":
+                deviceId = in.nextString();
+                break;
+            case "fileName":
+                fileName = in.nextString();
+                break;
+            case "content":
+                content = in.nextString();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        addFile(require(deviceId, "deviceId"), require(fileName, "fileName"), require(content, "content"));
+    }
+
+    private void importCsv(Reader in) throws IOException {
+        List<String> fields = new ArrayList<>();
+        while (readCsvRecord(in, fields)) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                continue;
+            }
+
+            String kind = fields.get(0);
+            if (kind.equals("satellite") && fields.size() == 5) {
+                createSatellite(fields.get(1), fields.get(2), Double.parseDouble(fields.get(3)),
+                        Double.parseDouble(fields.get(4)));
+            } else if (kind.equals("device") && (fields.size() == 4 || fields.size() == 5)) {
+                createDevice(fields.get(1), fields.get(2), Double.parseDouble(fields.get(3)),
+                        fields.size() == 5 && Boolean.parseBoolean(fields.get(4)));
+            } else if (kind.equals("slope") && fields.size() == 4) {
+                createSlope(Integer.parseInt(fields.get(1)), Integer.parseInt(fields.get(2)),
+                        Integer.parseInt(fields.get(3)));
+            } else if (kind.equals("file") && fields.size() == 4) {
+                addFile(fields.get(1), fields.get(2), fields.get(3));
+            } else {
+                throw malformed(fields.size() + " fields in a " + kind + " record");
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of the next record into the given list.
+     *
+     * @return false if there are no records left
+     */
+    private boolean readCsvRecord(Reader in, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int c = in.read();
+        if (c == -1) {
+            return false;
+        }
+
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw malformed("unterminated quoted field");
+                } else if (c == '"') {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        field.append('"');
+                    } else {
+                        in.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = in.read();
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    private void createSatellite(String satelliteId, String type, double height, double position)
+            throws IOException {
+        requireKind(type, false);
+        controller.createSatellite(satelliteId, type, height, Angle.fromRadians(position));
+        records++;
+    }
+
+    private void createDevice(String deviceId, String type, double position, boolean isMoving)
+            throws IOException {
+        requireKind(type, true);
+        controller.createDevice(deviceId, type, Angle.fromRadians(position), isMoving);
+        records++;
+    }
+
+    private void createSlope(int startAngle, int endAngle, int gradient) {
+        controller.createSlope(startAngle, endAngle, gradient);
+        records++;
+    }
+
+    private void addFile(String deviceId, String fileName, String content) throws IOException {
+        if (!controller.hasDevice(deviceId)) {
+            throw malformed("file " + fileName + " is for unknown device " + deviceId);
+        }
+        controller.addFileToDevice(deviceId, fileName, content);
+        records++;
+    }
+
+    /**
+     * Stops an unknown type being counted as imported, since the controller would quietly make nothing of it.
+     */
+    private void requireKind(String type, boolean device) throws IOException {
+        EntityKind kind = EntityKind.fromTypeName(type);
+        if (kind == null || kind.isDevice() != device) {
+            throw malformed("unknown " + (device ? "device" : "satellite") + " type " + type);
+        }
+    }
+
+    private <T> T require(T value, String field) throws IOException {
+        if (value == null) {
+            throw malformed("missing " + field);
+        }
+        return value;
+    }
+
+    private IOException malformed(String problem) {
+        return new IOException("Bad scenario after " + records + " records: " + problem);
+    }
+}
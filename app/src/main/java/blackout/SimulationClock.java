@@ -0,0 +1,17 @@
+package unsw.blackout;
+
+/**
+ * Counts the ticks (minutes) simulated so far. Satellites read it to work out where they are, so moving the
+ * clock on is all it takes to move every satellite.
+ */
+public final class SimulationClock {
+    private long tick;
+
+    public long getTick() {
+        return tick;
+    }
+
+    public void advance(long ticks) {
+        tick += ticks;
+    }
+}
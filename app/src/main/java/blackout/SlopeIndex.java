@@ -0,0 +1,120 @@
+package unsw.blackout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the slope under a moving device in constant time however many slopes there are.
+ *
+ * Slopes start and end on whole degrees and a device is only on a slope strictly between its ends, so the slope
+ * under a device can only change at a whole degree. The circle is cut into 720 cells, one for each whole degree
+ * and one for each open interval between neighbouring degrees, and each cell remembers the first slope created
+ * that covers it. Adding a slope fills in the cells it covers that no earlier slope had.
+ *
+ * A slope whose end is before its start wraps past 360 degrees. Positions on a wrapped slope are measured from
+ * its start going anticlockwise, so the height keeps climbing, or falling, across 0 degrees. Any other slope only
+ * covers the positions strictly between its ends as they are, so one that starts below 0 degrees or ends past
+ * 360 isn't carried round the circle.
+ */
+public final class SlopeIndex {
+    private static final int DEGREES = 360;
+
+    private final List<Slope> slopes = new ArrayList<>();
+    private final Slope[] cells = new Slope[2 * DEGREES];
+    private final int[] ends = new int[2 * DEGREES];
+    private final int[] shifts = new int[2 * DEGREES];
+
+    /**
+     * Adds a slope, which must not be changed afterwards. Where slopes overlap the one added first wins.
+     */
+    public void add(Slope slope) {
+        slopes.add(slope);
+
+        int start = slope.getStartAngle();
+        int end = slope.getEndAngle();
+        boolean wraps = end < start;
+        if (end == start) {
+            return;
+        } else if (wraps) {
+            end += DEGREES * (Math.floorDiv(start - end, DEGREES) + 1);
+        }
+
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] != null) {
+                continue;
+            }
+
+            int degree = cell / 2;
+            long lowest;
+            long highest;
+            if (cell % 2 == 0) {
+                // start < degree + shift < end
+                lowest = Math.floorDiv(start - degree, DEGREES) + 1;
+                highest = Math.floorDiv(end - degree - 1, DEGREES);
+            } else {
+                // start <= degree + shift and degree + shift + 1 <= end
+                lowest = -Math.floorDiv(degree - start, DEGREES);
+                highest = Math.floorDiv(end - degree - 1, DEGREES);
+            }
+            if (!wraps) {
+                // only the cell's own positions, without turning round the circle
+                lowest = Math.max(lowest, 0);
+                highest = Math.min(highest, 0);
+            }
+
+            if (lowest <= highest) {
+                long turns = lowest > 0 ? lowest : Math.min(0, highest);
+                cells[cell] = slope;
+                ends[cell] = end;
+                shifts[cell] = (int) (turns * DEGREES);
+            }
+        }
+    }
+
+    /**
+     * @return every slope, in the order they were added
+     */
+    public List<Slope> getSlopes() {
+        return Collections.unmodifiableList(slopes);
+    }
+
+    /**
+     * @return the height above the surface at the given position, or NaN if there is no slope there
+     */
+    public double heightAt(double degrees) {
+        if (!(degrees >= 0 && degrees < DEGREES)) {
+            return linearHeightAt(degrees);
+        }
+
+        int degree = (int) degrees;
+        int cell = degrees == degree ? 2 * degree : 2 * degree + 1;
+        Slope slope = cells[cell];
+        if (slope == null) {
+            return Double.NaN;
+        }
+        return height(slope, degrees + shifts[cell], ends[cell]);
+    }
+
+    /**
+     * Positions outside 0 to 360 degrees don't fit the cells, so they are checked against every slope as is.
+     */
+    private double linearHeightAt(double degrees) {
+        for (Slope slope : slopes) {
+            if (degrees < slope.getEndAngle() && degrees > slope.getStartAngle()) {
+                return height(slope, degrees, slope.getEndAngle());
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double height(Slope slope, double degrees, int end) {
+        int angle = 0;
+        if (slope.getGradient() > 0) {
+            angle = slope.getStartAngle();
+        } else if (slope.getGradient() < 0) {
+            angle = end;
+        }
+        return Math.abs(Math.abs(degrees - angle) * slope.getGradient());
+    }
+}
@@ -0,0 +1,85 @@
+package unsw.blackout;
+
+import java.util.Collection;
+
+/**
+ * Running totals over the files a satellite holds, so admission checks don't have to look at every file.
+ *
+ * A file reports changes to its size and progress to the counters of whichever satellite holds it. A sending
+ * satellite's own file makes progress on the thread moving it to its receiver, so updates are synchronised.
+ */
+public final class StorageCounters {
+    private int fileCount;
+    private int inFlightCount;
+    private long bytesReserved;
+    private long bytesStored;
+
+    synchronized void add(File file) {
+        fileCount++;
+        count(file.getSize(), file.getByteSent(), 1);
+    }
+
+    synchronized void remove(File file) {
+        fileCount--;
+        count(file.getSize(), file.getByteSent(), -1);
+    }
+
+    synchronized void update(int oldSize, int oldByteSent, int newSize, int newByteSent) {
+        count(oldSize, oldByteSent, -1);
+        count(newSize, newByteSent, 1);
+    }
+
+    private void count(int size, int byteSent, int sign) {
+        if (byteSent != size) {
+            inFlightCount += sign;
+            bytesReserved += sign * (long) size;
+        } else {
+            bytesStored += sign * (long) size;
+        }
+    }
+
+    public synchronized int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return the number of files that haven't finished arriving, or being sent on
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * @return the total size of the files that haven't finished arriving, or being sent on
+     */
+    public synchronized long getBytesReserved() {
+        return bytesReserved;
+    }
+
+    /**
+     * @return the total size of the files that are complete
+     */
+    public synchronized long getBytesStored() {
+        return bytesStored;
+    }
+
+    /**
+     * Counts the given files from scratch and checks the running totals agree.
+     *
+     * @throws IllegalStateException if they don't
+     */
+    public synchronized void verify(Collection<File> files) {
+        StorageCounters recount = new StorageCounters();
+        files.forEach(recount::add);
+        if (recount.fileCount != fileCount || recount.inFlightCount != inFlightCount
+                || recount.bytesReserved != bytesReserved || recount.bytesStored != bytesStored) {
+            throw new IllegalStateException("Storage counters " + this + " don't match the files held " + recount);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StorageCounters [fileCount=" + fileCount + ", inFlightCount=" + inFlightCount + ", bytesReserved="
+                + bytesReserved + ", bytesStored=" + bytesStored + "]";
+    }
+}
@@ -0,0 +1,94 @@
+package unsw.blackout.batch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import unsw.blackout.BlackoutController;
+
+/**
+ * Runs many independent scenarios, each on its own BlackoutController, and hands back one metric per run.
+ *
+ * Every run gets its own seed, drawn in order from the batch seed, so the same batch seed always gives the
+ * same metrics in the same order however the runs are scheduled. Runs go on the pool a few at a time: a run
+ * only starts once there is room for it among the runs that haven't been handed back yet, which caps how
+ * many controllers are in memory at once.
+ *
+ * @param <M> the metric taken from each run
+ */
+public final class BatchRunner<M> {
+    private final ScenarioGenerator generator;
+    private final int minutes;
+    private final Function<BlackoutController, M> metric;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int maxRunsInMemory = 2 * ForkJoinPool.commonPool().getParallelism();
+
+    /**
+     * @param generator sets up each run
+     * @param minutes   the number of minutes to simulate each run for
+     * @param metric    takes the metric from a run once it has been simulated
+     */
+    public BatchRunner(ScenarioGenerator generator, int minutes, Function<BlackoutController, M> metric) {
+        this.generator = generator;
+        this.minutes = minutes;
+        this.metric = metric;
+    }
+
+    /**
+     * Sets the pool runs go on, the common pool by default.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the most runs that can be started but not yet handed back at once, twice the common pool's
+     * parallelism by default.
+     */
+    public void setMaxRunsInMemory(int maxRunsInMemory) {
+        this.maxRunsInMemory = Math.max(1, maxRunsInMemory);
+    }
+
+    /**
+     * Runs the batch, handing each run's metric to results on the calling thread in run order as soon as it
+     * and every run before it have finished.
+     *
+     * @param seed    the seed every run's seed is drawn from
+     * @param runs    the number of runs
+     * @param results receives the metrics
+     */
+    public void run(long seed, int runs, Consumer<M> results) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        Deque<ForkJoinTask<M>> inFlight = new ArrayDeque<>();
+
+        try {
+            for (int i = 0; i < runs; i++) {
+                if (inFlight.size() == maxRunsInMemory) {
+                    results.accept(inFlight.removeFirst().join());
+                }
+                long runSeed = seeds.nextLong();
+                inFlight.addLast(pool.submit(() -> runScenario(runSeed)));
+            }
+            while (!inFlight.isEmpty()) {
+                results.accept(inFlight.removeFirst().join());
+            }
+        } finally {
+            inFlight.forEach(task -> task.cancel(true));
+        }
+    }
+
+    /**
+     * Runs a single scenario on the calling thread, the same as the batch would for a run with this seed.
+     */
+    public M runScenario(long runSeed) {
+        BlackoutController controller = new BlackoutController();
+        generator.generate(controller, new Random(runSeed));
+        controller.simulate(minutes);
+        return metric.apply(controller);
+    }
+}
@@ -0,0 +1,20 @@
+package unsw.blackout.batch;
+
+import java.util.Random;
+
+import unsw.blackout.BlackoutController;
+
+/**
+ * Sets up one randomised scenario for a batch run.
+ */
+@FunctionalInterface
+public interface ScenarioGenerator {
+    /**
+     * Fills a fresh controller with entities, files and slopes. All randomness has to come from the given random
+     * so that a run can be repeated from its seed.
+     *
+     * @param controller the controller to set up
+     * @param random     the source of randomness for this run
+     */
+    void generate(BlackoutController controller, Random random);
+}
@@ -0,0 +1,26 @@
+package unsw.blackout.content;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+
+/**
+ * Decides where the content of files added to devices is kept.
+ */
+@FunctionalInterface
+public interface ContentStore {
+    FileContent store(String content);
+
+    /**
+     * Stores content read to the end of the given reader, which isn't closed. Stores that keep content off the
+     * heap can stream it there without it ever being held whole in memory, while by default it is read into a
+     * string first.
+     *
+     * @throws IOException if the reader fails
+     */
+    default FileContent store(Reader content) throws IOException {
+        StringWriter text = new StringWriter();
+        content.transferTo(text);
+        return store(text.toString());
+    }
+}
@@ -0,0 +1,24 @@
+package unsw.blackout.content;
+
+/**
+ * The content of a file, wherever it is kept. Content never changes once stored, so it can be shared between
+ * every entity holding a copy of the file.
+ */
+public interface FileContent {
+    /**
+     * @return the number of characters in the content
+     */
+    int length();
+
+    /**
+     * @return the first end characters of the content
+     */
+    String prefix(int end);
+
+    /**
+     * @return the characters of the content from start up to end
+     */
+    default String substring(int start, int end) {
+        return prefix(end).substring(start);
+    }
+}
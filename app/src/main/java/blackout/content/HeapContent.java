@@ -0,0 +1,27 @@
+package unsw.blackout.content;
+
+/**
+ * Content kept as a string on the heap.
+ */
+public final class HeapContent implements FileContent {
+    private final String content;
+
+    public HeapContent(String content) {
+        this.content = content;
+    }
+
+    @Override
+    public int length() {
+        return content.length();
+    }
+
+    @Override
+    public String prefix(int end) {
+        return end == content.length() ? content : content.substring(0, end);
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        return content.substring(start, end);
+    }
+}
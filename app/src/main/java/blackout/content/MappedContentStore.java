@@ -0,0 +1,228 @@
+package unsw.blackout.content;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps content of at least a threshold number of characters in memory-mapped temp files, so it lives outside
+ * the heap and the operating system can page it out. Smaller content stays on the heap, where a mapping would
+ * cost more than it saves.
+ *
+ * Content that fits in a byte per character is written as ISO-8859-1, anything else as UTF-16, so a character
+ * can always be found at a fixed offset. Each temp file is deleted as soon as it is mapped and its space is
+ * given back once the mapping is garbage collected. Content read from a reader is streamed into its temp file a
+ * buffer at a time, so it never has to fit on the heap.
+ *
+ * That only holds for sessions that aren't journaled. A journaled session reads the whole content into a string
+ * for the record of the call that adds it, and Checkpoint.writeText and readText hold each file's content whole
+ * on the heap while it is checkpointed or read back.
+ */
+public final class MappedContentStore implements ContentStore {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final int threshold;
+
+    /**
+     * @param threshold the shortest content, in characters, to keep in a mapped file
+     */
+    public MappedContentStore(int threshold) {
+        this(null, threshold);
+    }
+
+    /**
+     * @param directory where to make the temp files, or null for the default temp directory
+     * @param threshold the shortest content, in characters, to keep in a mapped file
+     */
+    public MappedContentStore(Path directory, int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public FileContent store(String content) {
+        if (content.length() < threshold || content.isEmpty()) {
+            return new HeapContent(content);
+        }
+
+        boolean latin1 = content.chars().allMatch(c -> c <= 0xFF);
+        byte[] bytes = content.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE);
+        try {
+            Path path = createTempFile();
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(bytes));
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+            } finally {
+                deleteWhenUnused(path);
+            }
+            return new MappedContent(buffer, content.length(), latin1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public FileContent store(Reader content) throws IOException {
+        // content shorter than the threshold goes on the heap, so only that much is read before deciding
+        int heapChars = Math.max(1, threshold);
+        StringBuilder head = new StringBuilder();
+        char[] chars = new char[BUFFER_BYTES / 2];
+        while (head.length() < heapChars) {
+            int read = content.read(chars, 0, Math.min(chars.length, heapChars - head.length()));
+            if (read < 0) {
+                return store(head.toString());
+            }
+            head.append(chars, 0, read);
+        }
+
+        Path path = createTempFile();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ContentWriter writer = new ContentWriter(channel);
+            writer.write(head);
+            for (int read = content.read(chars); read >= 0; read = content.read(chars)) {
+                writer.write(CharBuffer.wrap(chars, 0, read));
+            }
+            return writer.map();
+        } finally {
+            deleteWhenUnused(path);
+        }
+    }
+
+    private Path createTempFile() throws IOException {
+        return directory == null ? Files.createTempFile("blackout", ".content")
+                : Files.createTempFile(directory, "blackout", ".content");
+    }
+
+    private static void deleteWhenUnused(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            // some platforms won't delete a file while it is mapped
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Writes content to a temp file a buffer at a time, as ISO-8859-1 until a character that doesn't fit comes
+     * along, when everything written so far is widened to UTF-16 in place and the rest is written as UTF-16.
+     */
+    private static final class ContentWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private long length;
+        private boolean latin1 = true;
+
+        ContentWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (latin1 && c > 0xFF) {
+                    widen();
+                }
+                if (buffer.remaining() < 2) {
+                    flush();
+                }
+                if (latin1) {
+                    buffer.put((byte) c);
+                } else {
+                    buffer.putChar(c);
+                }
+                length++;
+                if (bytes() > Integer.MAX_VALUE) {
+                    throw new IOException("Content is too long to map");
+                }
+            }
+        }
+
+        MappedContent map() throws IOException {
+            flush();
+            return new MappedContent(channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes()), (int) length, latin1);
+        }
+
+        private long bytes() {
+            return latin1 ? length : 2 * length;
+        }
+
+        private void widen() throws IOException {
+            flush();
+            // working back from the end, every byte moves to the same place or later, so none is overwritten
+            // before it has been read
+            ByteBuffer narrow = ByteBuffer.allocate(BUFFER_BYTES / 2);
+            ByteBuffer wide = ByteBuffer.allocate(BUFFER_BYTES);
+            for (long end = length; end > 0;) {
+                long start = Math.max(0, end - narrow.capacity());
+                narrow.clear().limit((int) (end - start));
+                while (narrow.hasRemaining()) {
+                    if (channel.read(narrow, start + narrow.position()) < 0) {
+                        throw new EOFException("Content file is shorter than what was written");
+                    }
+                }
+                narrow.flip();
+                wide.clear();
+                while (narrow.hasRemaining()) {
+                    wide.putChar((char) (narrow.get() & 0xFF));
+                }
+                wide.flip();
+                while (wide.hasRemaining()) {
+                    channel.write(wide, 2 * start + wide.position());
+                }
+                end = start;
+            }
+            latin1 = false;
+            channel.position(bytes());
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class MappedContent implements FileContent {
+        private final MappedByteBuffer buffer;
+        private final int length;
+        private final boolean latin1;
+
+        MappedContent(MappedByteBuffer buffer, int length, boolean latin1) {
+            this.buffer = buffer;
+            this.length = length;
+            this.latin1 = latin1;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public String prefix(int end) {
+            return substring(0, end);
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            // absolute gets leave the buffer's position alone, so holders on other threads can read at once
+            int width = latin1 ? 1 : 2;
+            byte[] bytes = new byte[width * (end - start)];
+            buffer.get(width * start, bytes);
+            return new String(bytes, latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE);
+        }
+    }
+}
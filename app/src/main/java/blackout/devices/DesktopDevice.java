@@ -1,5 +1,6 @@
 package unsw.blackout.devices;
 
+import unsw.blackout.EntityKind;
 import unsw.utils.Angle;
 
 public class DesktopDevice extends Device {
@@ -10,6 +11,10 @@ public class DesktopDevice extends Device {
         super(deviceId, deviceType, devicePosition);
     }
 
+    public EntityKind getKind() {
+        return EntityKind.DESKTOP_DEVICE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
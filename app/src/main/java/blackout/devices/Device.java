@@ -1,29 +1,38 @@
 package unsw.blackout.devices;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+import unsw.blackout.EntityKind;
+import unsw.blackout.EntityStore;
 import unsw.blackout.File;
-import unsw.blackout.Slope;
+import unsw.blackout.Link;
+import unsw.blackout.LinkGraph;
+import unsw.blackout.LinkTable;
+import unsw.blackout.SlopeIndex;
 import unsw.blackout.FileTransferException;
+import unsw.blackout.content.FileContent;
 import unsw.blackout.satellites.RelaySatellite;
 import unsw.blackout.satellites.Satellite;
-import unsw.blackout.satellites.StandardSatellite;
 import unsw.response.models.EntityInfoResponse;
 import unsw.response.models.FileInfoResponse;
 import unsw.utils.Angle;
-import unsw.utils.MathsHelper;
 
 import static unsw.utils.MathsHelper.RADIUS_OF_JUPITER;
 
+/**
+ * Moving devices step every tick, so their position is kept as plain radians and an Angle is only made when one
+ * is asked for through getDevicePosition.
+ */
 public abstract class Device {
+    private static final double FULL_CIRCLE = Math.toRadians(360);
+
     private String deviceId;
     private String deviceType;
     private Angle devicePosition;
+    private double deviceRadians;
     private Map<String, File> filesMap;
     private double deviceHeight = RADIUS_OF_JUPITER;
     private boolean isMoving = false;
@@ -32,49 +41,33 @@ public abstract class Device {
         this.deviceId = deviceId;
         this.deviceType = deviceType;
         this.devicePosition = devicePosition;
+        this.deviceRadians = devicePosition.toRadians();
         this.filesMap = new HashMap<>();
         this.isMoving = false;
     }
 
+    public abstract EntityKind getKind();
+
     public abstract int getMaxRange();
 
     public abstract int getLinearVelocity();
 
-    public void setNewPosition(List<Slope> slopesArray) {
-        if (slopesArray.stream().anyMatch(slope -> devicePosition.toDegrees() < slope.getEndAngle()
-                && devicePosition.toDegrees() > slope.getStartAngle())) {
-
-            List<Slope> filteredSlopes = slopesArray.stream()
-                    .filter(slope -> devicePosition.toDegrees() < slope.getEndAngle()
-                            && devicePosition.toDegrees() > slope.getStartAngle())
-                    .collect(Collectors.toList());
-
-            Slope slope = filteredSlopes.get(0);
-
-            int angle = 0;
-            if (slope.getGradient() > 0) {
-                angle = slope.getStartAngle();
-            } else if (slope.getGradient() < 0) {
-                angle = slope.getEndAngle();
-            }
-            double height = Math.abs(Math.abs(devicePosition.toDegrees() - angle) * slope.getGradient());
-
+    public void setNewPosition(SlopeIndex slopes) {
+        double height = slopes.heightAt(Math.toDegrees(deviceRadians));
+        if (!Double.isNaN(height)) {
             this.setDeviceHeight(RADIUS_OF_JUPITER + height);
-
         }
 
-        Angle angularVAngle = Angle.fromRadians(getLinearVelocity() / getDeviceHeight());
-        Angle currAngle = getDevicePosition();
-        setDevicePosition(currAngle.subtract(angularVAngle));
-
-        if (this.getDevicePosition().toDegrees() < 0) {
-            this.devicePosition = devicePosition.add(Angle.fromDegrees(360));
+        deviceRadians -= getLinearVelocity() / getDeviceHeight();
+        if (deviceRadians < 0) {
+            deviceRadians += FULL_CIRCLE;
         }
+        devicePosition = null;
     }
 
     public void sendFileHelper(String filename, File file, String fromId, String toId,
-            Map<List<String>, List<File>> filesToTransfer, Map<String, Satellite> satelliteMap,
-            Map<String, Device> deviceMap) throws FileTransferException {
+            LinkTable linkTable, Map<String, Satellite> satelliteMap,
+            LinkGraph linkGraph) throws FileTransferException {
 
         Satellite currSatellite = satelliteMap.get(toId);
 
@@ -92,68 +85,36 @@ public abstract class Device {
         }
 
         if (!currSatellite.storageOverflow(file)) {
-            List<File> newFilesArray = filesToTransfer.get(Arrays.asList(fromId, toId));
+            Link link = linkTable.get(fromId, toId);
             currSatellite.removeFiles(file);
-            newFilesArray.remove(file);
+            link.getFiles().remove(file);
         }
 
         file.setByteSent(0);
         file.setFrom(fromId);
         file.setTo(toId);
 
-        if (file != null && communicableEntitiesInRangeHelper(satelliteMap, deviceMap, fromId).contains(toId)) {
-            currSatellite.addFiletoSatellite(file, "", file.getSize());
-            List<File> newFilesArray = filesToTransfer.get(Arrays.asList(fromId, toId));
-            if (newFilesArray == null) {
-                newFilesArray = new ArrayList<>();
-                filesToTransfer.put(Arrays.asList(fromId, toId), newFilesArray);
-            }
-            newFilesArray.add(file);
+        if (file != null && linkGraph.canCommunicate(fromId, toId)) {
+            currSatellite.addFiletoSatellite(file, 0, file.getSize());
+            linkTable.getOrCreate(fromId, toId).getFiles().add(file);
 
         }
 
     }
 
-    public List<String> communicableEntitiesInRangeHelper(Map<String, Satellite> satelliteMap,
-            Map<String, Device> deviceMap, String id) {
+    public List<String> entitiesInDirectRangeHelper(EntityStore entityStore) {
 
         List<String> nearbyEntities = new ArrayList<>();
 
         int maxRange = this.getMaxRange();
+        int slot = entityStore.slotOf(deviceId);
 
-        for (Map.Entry<String, Satellite> entry : satelliteMap.entrySet()) {
-            Satellite nextSatellite = entry.getValue();
-
-            double distanceBetweenSatellites = MathsHelper.getDistance(nextSatellite.getSatelliteHeight(),
-                    nextSatellite.getSatellitePosition(), this.getDevicePosition());
-
-            boolean isVisible = MathsHelper.isVisible(nextSatellite.getSatelliteHeight(),
-                    nextSatellite.getSatellitePosition(), this.getDevicePosition());
-
-            if (distanceBetweenSatellites < maxRange && !nearbyEntities.contains(nextSatellite.getSatelliteId())
-                    && isVisible && nextSatellite.getAllowedConnections().contains(this.getClass().getSimpleName())) {
-                nearbyEntities.add(nextSatellite.getSatelliteId());
+        // only satellites that accept this kind of device are visited
+        entityStore.forEachSatelliteNear(slot, maxRange, getKind().getDirectMask(), nextSlot -> {
+            if (entityStore.isLinked(nextSlot, slot, maxRange)) {
+                nearbyEntities.add(entityStore.idAt(nextSlot));
             }
-        }
-
-        List<String> relayList = nearbyEntities.stream()
-                .filter(element -> satelliteMap.get(element) instanceof RelaySatellite).flatMap(element -> {
-                    RelaySatellite relaySatellite = (RelaySatellite) satelliteMap.get(element);
-                    List<String> closeEntities = relaySatellite.communicableEntitiesInRangeHelper(satelliteMap,
-                            deviceMap, id);
-                    return closeEntities.stream();
-                }).collect(Collectors.toList());
-
-        nearbyEntities.addAll(relayList);
-
-        if (deviceMap.get(id) instanceof DesktopDevice) {
-            nearbyEntities.removeIf(element -> {
-                Satellite satellite = satelliteMap.get(element);
-                return satellite instanceof StandardSatellite;
-            });
-        }
-
-        nearbyEntities.remove(this.deviceId);
+        });
 
         return nearbyEntities;
     }
@@ -166,19 +127,19 @@ public abstract class Device {
             filesMap.put(file.getFilename(), response);
         }
 
-        return new EntityInfoResponse(this.deviceId, this.devicePosition, this.deviceHeight, this.deviceType, filesMap);
+        return new EntityInfoResponse(this.deviceId, getDevicePosition(), this.deviceHeight, this.deviceType, filesMap);
     }
 
     public void removeFiles(File file) {
         filesMap.remove(file.getFilename());
     }
 
-    public void addFiletoDevice(File file, String content, int size) {
-        File newfile = new File(file, content, size);
+    public void addFiletoDevice(File file, int contentLength, int size) {
+        File newfile = new File(file, contentLength, size);
         filesMap.put(file.getFilename(), newfile);
     }
 
-    public void addToFilesArray(String filename, String content, String deviceId) {
+    public void addToFilesArray(String filename, FileContent content, String deviceId) {
         File newFile = new File(filename, content, content.length(), deviceId);
         filesMap.put(filename, newFile);
     }
@@ -200,11 +161,19 @@ public abstract class Device {
     }
 
     public Angle getDevicePosition() {
+        if (devicePosition == null) {
+            devicePosition = Angle.fromRadians(deviceRadians);
+        }
         return devicePosition;
     }
 
+    public double getDeviceRadians() {
+        return deviceRadians;
+    }
+
     public void setDevicePosition(Angle devicePosition) {
         this.devicePosition = devicePosition;
+        this.deviceRadians = devicePosition.toRadians();
     }
 
     public Map<String, File> getFilesMap() {
@@ -1,5 +1,6 @@
 package unsw.blackout.devices;
 
+import unsw.blackout.EntityKind;
 import unsw.utils.Angle;
 
 public class HandheldDevice extends Device {
@@ -10,6 +11,10 @@ public class HandheldDevice extends Device {
         super(deviceId, deviceType, devicePosition);
     }
 
+    public EntityKind getKind() {
+        return EntityKind.HANDHELD_DEVICE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
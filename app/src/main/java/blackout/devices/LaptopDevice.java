@@ -1,5 +1,6 @@
 package unsw.blackout.devices;
 
+import unsw.blackout.EntityKind;
 import unsw.utils.Angle;
 
 public class LaptopDevice extends Device {
@@ -10,6 +11,10 @@ public class LaptopDevice extends Device {
         super(deviceId, deviceType, devicePosition);
     }
 
+    public EntityKind getKind() {
+        return EntityKind.LAPTOP_DEVICE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
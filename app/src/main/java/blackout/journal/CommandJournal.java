@@ -0,0 +1,736 @@
+package unsw.blackout.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import unsw.blackout.content.ContentStore;
+import unsw.blackout.content.HeapContent;
+
+/**
+ * An append-only journal of the calls made to every session's controller, with a checkpoint of each session that
+ * bounds how much of the journal has to be replayed after a crash.
+ *
+ * Records from every session go into one log, split into segment files named after the number of their first
+ * record. A single writer thread takes every record appended since its last write, writes them with one gathering
+ * write and forces them to disk once, so callers waiting on their records at the same time share one fsync. Each
+ * record is its length and a CRC32 of its body, then the body, which is the session id and the command. A crash
+ * can leave a partly written record at the end of the last segment, and recovery cuts it off.
+ *
+ * A session is checkpointed on a background thread once replaying it since its last checkpoint would take more
+ * than the checkpoint interval's worth of ticks. A checkpoint holds the number of the last record it covers, and a
+ * segment is deleted once every session's checkpoint covers all of it. Whenever there are more than the maximum
+ * number of segments the sessions holding on to the oldest one are checkpointed too, so recovery never has much
+ * more than that many segments to read.
+ *
+ * A session can be unloaded to free its memory, which checkpoints it first, so it holds on to no segments while
+ * it is out of memory and is read back from its checkpoint when asked for again. Opening the journal only reads
+ * back the sessions with records after their checkpoints, and leaves the rest to be read when they are asked for.
+ *
+ * A session can also be discarded for good. Its checkpoint is replaced with a marker holding only the number of
+ * its last record, so recovery still skips its records in the segments left, and the marker is deleted once no
+ * segment holds any of them. Checkpoints of sessions that stay out of memory for longer than the retention time
+ * are discarded too, so sessions nobody comes back for don't stay on disk for ever.
+ */
+public final class CommandJournal implements Closeable {
+    private static final int CHECKPOINT_MAGIC = 0x424c4b43;
+    private static final int DISCARDED_MAGIC = 0x424c4b44;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "session-";
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final ContentStore contentStore;
+    private final Map<String, JournaledController> sessions = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final ExecutorService checkpointer;
+    private final Thread writer;
+    private volatile long segmentBytes = 64L << 20;
+    private volatile int maxSegments = 4;
+    private volatile long checkpointInterval = 100_000;
+    private volatile long retentionMillis = Long.MAX_VALUE;
+
+    // appended records waiting for the writer, and how far it has got, guarded by lock
+    private final Object lock = new Object();
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appendedLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+
+    // only used by the writer thread once it has started
+    private FileChannel channel;
+
+    /**
+     * Opens the journal in the given directory, making the directory if need be, and rebuilds every session with
+     * records after its latest checkpoint from that checkpoint and those records.
+     *
+     * @param directory the directory holding the journal's segments and checkpoints
+     * @throws IOException if the journal can't be read or records are missing from the middle of it
+     */
+    public CommandJournal(Path directory) throws IOException {
+        this(directory, HeapContent::new);
+    }
+
+    /**
+     * @param contentStore where every session keeps the content of its files, including those read back from
+     *                     checkpoints
+     */
+    public CommandJournal(Path directory, ContentStore contentStore) throws IOException {
+        this.directory = directory;
+        this.contentStore = contentStore;
+        Files.createDirectories(directory);
+
+        Map<String, Long> checkpointLsns = new HashMap<>();
+        long lastLsn = Math.max(loadCheckpoints(checkpointLsns), replaySegments(checkpointLsns));
+        appendedLsn = lastLsn;
+        durableLsn = lastLsn;
+        channel = openSegment(lastLsn + 1);
+
+        checkpointer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "blackout-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer = new Thread(this::writeLoop, "blackout-journal");
+        writer.setDaemon(true);
+        writer.start();
+
+        sessions.values().forEach(JournaledController::requestCheckpointIfDue);
+        checkpointIfTooManySegments();
+    }
+
+    /**
+     * @return the session with the given id, loaded again from its checkpoint if it was unloaded, or made with an
+     *         empty world if the journal doesn't hold it yet
+     * @throws UncheckedIOException if the session's checkpoint can't be read
+     */
+    public JournaledController getSession(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, id -> {
+            Path path = checkpointPath(id);
+            if (!Files.exists(path)) {
+                return newSession(id);
+            }
+            try {
+                return readCheckpoint(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Checkpoints a session and lets go of it, so it no longer takes up memory. Asking for the session again
+     * loads it back from its checkpoint, while calls made to the unloaded controller throw IllegalStateException.
+     * If the checkpoint can't be written the session stays loaded.
+     *
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void unload(String sessionId) throws IOException {
+        JournaledController session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+
+        synchronized (session) {
+            // a session with nothing new since its checkpoint, or that never made a call, comes back as it is
+            if (session.getFirstUnsavedLsn() != Long.MAX_VALUE) {
+                checkpoint(session);
+            }
+            Path path = checkpointPath(sessionId);
+            if (Files.exists(path)) {
+                // the retention time runs from when the session left memory, not from when it last changed
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            session.unload();
+            sessions.remove(sessionId, session);
+        }
+    }
+
+    /**
+     * Lets go of a session for good, deleting its checkpoint. Asking for the session again makes it with an empty
+     * world, while calls made to the discarded controller throw IllegalStateException. If the checkpoint can't be
+     * replaced the session stays as it was.
+     *
+     * @throws IOException if the session's checkpoint can't be replaced
+     */
+    public void discard(String sessionId) throws IOException {
+        JournaledController session = sessions.get(sessionId);
+        if (session == null) {
+            try {
+                sessions.compute(sessionId, (id, loaded) -> {
+                    if (loaded == null) {
+                        discardStored(id, Long.MAX_VALUE);
+                    }
+                    return loaded;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
+        }
+
+        synchronized (session) {
+            markDiscarded(sessionId, session.getLastLsn());
+            session.unload();
+            sessions.remove(sessionId, session);
+        }
+        deleteCoveredSegments();
+    }
+
+    /**
+     * Replaces a session's checkpoint with a marker holding the number of its last record, or deletes it if no
+     * segment holds any of the session's records.
+     */
+    private void markDiscarded(String sessionId, long lsn) throws IOException {
+        Path path = checkpointPath(sessionId);
+        if (lsn < firstSegmentLsn()) {
+            Files.deleteIfExists(path);
+            return;
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(file));
+            out.writeInt(DISCARDED_MAGIC);
+            out.writeUTF(sessionId);
+            out.writeLong(lsn);
+            out.flush();
+            file.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discards the checkpoint of a session that isn't in memory if it hasn't been changed since the given time,
+     * and deletes its marker if it has already been discarded and no segment holds its records any more. Called
+     * holding the session's entry in the map of sessions, so it can't be loaded at the same time.
+     *
+     * @throws UncheckedIOException if the checkpoint can't be read or replaced
+     */
+    private void discardStored(String sessionId, long unusedSince) {
+        Path path = checkpointPath(sessionId);
+        try {
+            if (!Files.exists(path)) {
+                return;
+            }
+            CheckpointHeader header = readHeader(path);
+            if (header.discarded) {
+                if (header.lsn < firstSegmentLsn()) {
+                    Files.delete(path);
+                }
+            } else if (Files.getLastModifiedTime(path).toMillis() < unusedSince) {
+                markDiscarded(sessionId, header.lsn);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Discards the checkpoints of sessions out of memory for longer than the retention time, and deletes the
+     * markers of discarded sessions no segment holds records of any more.
+     */
+    private void discardExpired() throws IOException {
+        long retention = retentionMillis;
+        long unusedSince = retention == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - retention;
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory,
+                CHECKPOINT_PREFIX + "*" + CHECKPOINT_SUFFIX)) {
+            entries.forEach(paths::add);
+        }
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            String hex = name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length());
+            String sessionId = new String(HexFormat.of().parseHex(hex), StandardCharsets.UTF_8);
+            sessions.compute(sessionId, (id, loaded) -> {
+                if (loaded == null) {
+                    discardStored(id, unusedSince);
+                }
+                return loaded;
+            });
+        }
+    }
+
+    /**
+     * Queues a pass over the checkpoints on the background thread, discarding those kept for too long.
+     */
+    private void requestDiscardExpired() {
+        checkpointer.execute(() -> {
+            try {
+                discardExpired();
+            } catch (IOException | RuntimeException e) {
+                // whatever is left is tried again on the next pass
+            }
+        });
+    }
+
+    private long firstSegmentLsn() {
+        synchronized (segments) {
+            return segments.isEmpty() ? Long.MAX_VALUE : segments.firstKey();
+        }
+    }
+
+    /**
+     * @return every session the journal holds in memory by id, including those rebuilt when it was opened
+     */
+    public Map<String, JournaledController> getSessions() {
+        return Collections.unmodifiableMap(sessions);
+    }
+
+    /**
+     * Sets the size a segment grows to before the journal moves on to a new one, 64MB by default.
+     */
+    public void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Sets how many segments there can be before the sessions holding on to the oldest are checkpointed, 4 by
+     * default.
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = Math.max(2, maxSegments);
+    }
+
+    /**
+     * Sets how many ticks' worth of calls, counting every call other than simulate as one tick, a session may
+     * make after its last checkpoint before it is checkpointed again, 100,000 by default.
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Sets how long the checkpoint of a session out of memory is kept before the session is discarded, for ever by
+     * default. It is checked now and whenever the journal moves on to a new segment.
+     */
+    public void setRetention(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+        requestDiscardExpired();
+    }
+
+    long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Queues a record for the writer, marking the session as holding on to it before the writer can see it, so a
+     * segment holding the record is never deleted before the session is checkpointed.
+     *
+     * @return the record's number, which awaitDurable takes
+     */
+    long append(JournaledController session, byte[] command) {
+        String sessionId = session.getSessionId();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + command.length + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(0);
+            out.writeUTF(sessionId);
+            out.write(command);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, record.length - HEADER_BYTES);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, record.length - HEADER_BYTES).putInt(4, (int) crc.getValue());
+
+        synchronized (lock) {
+            if (failure != null) {
+                throw new UncheckedIOException("Journal can't be written", failure);
+            } else if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            long lsn = ++appendedLsn;
+            session.holdFrom(lsn);
+            pending.add(buffer);
+            lock.notifyAll();
+            return lsn;
+        }
+    }
+
+    /**
+     * Waits until the given record, and every record before it, is on disk.
+     *
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    void awaitDurable(long lsn) {
+        synchronized (lock) {
+            while (durableLsn < lsn && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for journal"));
+                }
+            }
+            if (durableLsn < lsn) {
+                throw new UncheckedIOException("Journal can't be written", failure);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                List<ByteBuffer> batch;
+                long lastLsn;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !closed) {
+                        lock.wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    lastLsn = appendedLsn;
+                }
+
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(false);
+                synchronized (lock) {
+                    durableLsn = lastLsn;
+                    lock.notifyAll();
+                }
+
+                if (channel.size() >= segmentBytes) {
+                    channel.close();
+                    channel = openSegment(lastLsn + 1);
+                    checkpointIfTooManySegments();
+                    requestDiscardExpired();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            synchronized (lock) {
+                failure = e instanceof IOException ? (IOException) e : new InterruptedIOException();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long firstLsn) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+        FileChannel segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        synchronized (segments) {
+            segments.put(firstLsn, path);
+        }
+        return segment;
+    }
+
+    /**
+     * Queues a checkpoint of the given session on the background thread.
+     */
+    void requestCheckpoint(JournaledController session) {
+        checkpointer.execute(() -> {
+            try {
+                checkpoint(session);
+            } catch (IOException | UncheckedIOException e) {
+                // the session's records are still in the journal, so nothing is lost and a later call tries again
+                session.checkpointFailed();
+            }
+        });
+    }
+
+    /**
+     * Checkpoints every session with records in the oldest segment, once there are too many segments.
+     */
+    private void checkpointIfTooManySegments() {
+        long keepFrom;
+        synchronized (segments) {
+            if (segments.size() <= maxSegments) {
+                return;
+            }
+            keepFrom = segments.higherKey(segments.firstKey());
+        }
+        for (JournaledController session : sessions.values()) {
+            if (session.getFirstUnsavedLsn() < keepFrom) {
+                requestCheckpoint(session);
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the given session covering every record it has made, replacing its last one, then
+     * deletes any segments no session needs any more. The session can't make calls while this happens.
+     */
+    void checkpoint(JournaledController session) throws IOException {
+        Path path = checkpointPath(session.getSessionId());
+        Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+
+        synchronized (session) {
+            if (session.isUnloaded()) {
+                // a queued checkpoint mustn't overwrite the one of the session loaded back in its place
+                return;
+            }
+            // a checkpoint never gets ahead of the journal, so record numbers carry on from it after a crash
+            long lsn = session.getLastLsn();
+            awaitDurable(lsn);
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file)));
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeUTF(session.getSessionId());
+                out.writeLong(lsn);
+                session.checkpoint(out);
+                out.flush();
+                file.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            session.saved();
+        }
+        deleteCoveredSegments();
+    }
+
+    private Path checkpointPath(String sessionId) {
+        String hex = HexFormat.of().formatHex(sessionId.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(CHECKPOINT_PREFIX + hex + CHECKPOINT_SUFFIX);
+    }
+
+    private void deleteCoveredSegments() throws IOException {
+        // any record appended after this is kept whatever the sessions say, while every record before it has
+        // already been marked as held by its session
+        long needed;
+        synchronized (lock) {
+            needed = appendedLsn + 1;
+        }
+        for (JournaledController session : sessions.values()) {
+            needed = Math.min(needed, session.getFirstUnsavedLsn());
+        }
+        synchronized (segments) {
+            // the segment being written to is never deleted, and every record not yet written goes in it or later
+            while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= needed) {
+                Files.deleteIfExists(segments.pollFirstEntry().getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the number of the last record each session's latest checkpoint covers and finds the segments, clearing
+     * away checkpoints that were never finished. The sessions themselves are left on disk.
+     *
+     * @param checkpointLsns filled with the number of the last record each session's checkpoint covers
+     * @return the number of the last record any checkpoint covers, 0 if there are none
+     */
+    private long loadCheckpoints(Map<String, Long> checkpointLsns) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            entries.forEach(paths::add);
+        }
+
+        long lastLsn = 0;
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                Files.delete(path);
+            } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())), path);
+            } else if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)) {
+                CheckpointHeader header = readHeader(path);
+                checkpointLsns.put(header.sessionId, header.lsn);
+                lastLsn = Math.max(lastLsn, header.lsn);
+            }
+        }
+        return lastLsn;
+    }
+
+    private JournaledController readCheckpoint(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            CheckpointHeader header = readHeader(in, path);
+            JournaledController session = newSession(header.sessionId);
+            if (header.discarded) {
+                session.startAfter(header.lsn);
+            } else {
+                session.load(in, header.lsn);
+            }
+            return session;
+        }
+    }
+
+    private JournaledController newSession(String sessionId) {
+        JournaledController session = new JournaledController(sessionId, this);
+        session.setContentStore(contentStore);
+        return session;
+    }
+
+    private static CheckpointHeader readHeader(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return readHeader(in, path);
+        }
+    }
+
+    private static CheckpointHeader readHeader(DataInputStream in, Path path) throws IOException {
+        int magic = in.readInt();
+        if (magic != CHECKPOINT_MAGIC && magic != DISCARDED_MAGIC) {
+            throw new IOException(path + " is not a session checkpoint");
+        }
+        return new CheckpointHeader(in.readUTF(), in.readLong(), magic == DISCARDED_MAGIC);
+    }
+
+    /**
+     * Replays every record after the checkpoint of the session that made it, cutting off a partly written record
+     * at the end of the last segment and deleting that segment if nothing is left in it. Only the sessions with
+     * records to replay are read back from their checkpoints.
+     *
+     * @param checkpointLsns the number of the last record each session's checkpoint covers
+     * @return the number of the last record, 0 if there are none
+     */
+    private long replaySegments(Map<String, Long> checkpointLsns) throws IOException {
+        long lsn = segments.isEmpty() ? 0 : segments.firstKey() - 1;
+        for (Map.Entry<Long, Path> segment : new ArrayList<>(segments.entrySet())) {
+            if (segment.getKey() != lsn + 1) {
+                throw new IOException("Journal is missing records before " + segment.getValue());
+            }
+            boolean last = segment.getKey().equals(segments.lastKey());
+            lsn = replaySegment(segment.getValue(), segment.getKey(), last, checkpointLsns);
+            if (last && lsn < segment.getKey()) {
+                Files.delete(segment.getValue());
+                segments.remove(segment.getKey());
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * @return the number of the last whole record in the segment
+     */
+    private long replaySegment(Path path, long firstLsn, boolean last, Map<String, Long> checkpointLsns)
+            throws IOException {
+        long lsn = firstLsn - 1;
+        long wholeBytes = 0;
+        long size = Files.size(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (wholeBytes < size) {
+                byte[] body = readRecord(in, size - wholeBytes);
+                if (body == null) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                String sessionId = record.readUTF();
+                byte[] command = record.readAllBytes();
+                lsn++;
+                if (lsn > checkpointLsns.getOrDefault(sessionId, 0L)) {
+                    getSession(sessionId).replay(lsn, command);
+                }
+                wholeBytes += HEADER_BYTES + body.length;
+            }
+        }
+
+        if (wholeBytes < size) {
+            if (!last) {
+                throw new IOException(path + " is corrupt at byte " + wholeBytes);
+            }
+            try (FileChannel segment = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                segment.truncate(wholeBytes);
+                segment.force(true);
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * @return the body of the next record, or null if it was only partly written
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length < 0 || length > remaining - HEADER_BYTES) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            return (int) crc.getValue() == expectedCrc ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes out every record appended so far and waits for queued checkpoints to finish. Sessions can't make
+     * any more calls afterwards.
+     *
+     * @throws IOException if the journal couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try {
+            writer.join();
+            checkpointer.shutdown();
+            checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static final class CheckpointHeader {
+        private final String sessionId;
+        private final long lsn;
+        private final boolean discarded;
+
+        CheckpointHeader(String sessionId, long lsn, boolean discarded) {
+            this.sessionId = sessionId;
+            this.lsn = lsn;
+            this.discarded = discarded;
+        }
+    }
+}
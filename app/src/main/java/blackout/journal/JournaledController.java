@@ -0,0 +1,439 @@
+package unsw.blackout.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import unsw.blackout.BlackoutController;
+import unsw.blackout.FileTransferException;
+import unsw.utils.Angle;
+
+/**
+ * A controller that records every call that changes its world in a command journal before carrying it out, so
+ * the world can be rebuilt after a crash. A call only returns once its record is durable.
+ *
+ * Calls are recorded and carried out while holding the controller's monitor, so records for one session are in
+ * the order their calls took effect. Calls made from inside another call, such as the ticks of simulate(int),
+ * aren't recorded again. Settings such as parallelism and the relay hop limit aren't recorded, so they have to be
+ * set again after recovery.
+ *
+ * Whatever content store the session has, the content of a file added to it is held whole on the heap while its
+ * call is recorded, since the record holds all of it, and again whenever the session is checkpointed or read back
+ * from a checkpoint, so a store that keeps content off the heap only saves memory in between.
+ */
+public class JournaledController extends BlackoutController {
+    private static final byte CREATE_DEVICE = 1;
+    private static final byte REMOVE_DEVICE = 2;
+    private static final byte CREATE_SATELLITE = 3;
+    private static final byte REMOVE_SATELLITE = 4;
+    private static final byte ADD_FILE = 5;
+    private static final byte SEND_FILE = 6;
+    private static final byte CREATE_SLOPE = 7;
+    private static final byte SIMULATE = 8;
+
+    private final String sessionId;
+    private final CommandJournal journal;
+    private int depth;
+    private boolean importing;
+    private boolean unloaded;
+
+    // guarded by this controller's monitor, apart from firstUnsavedLsn which the journal reads to retire segments
+    private long lastLsn;
+    private volatile long firstUnsavedLsn = Long.MAX_VALUE;
+    private long unsavedWork;
+    private long checkpoints;
+    private boolean checkpointRequested;
+
+    JournaledController(String sessionId, CommandJournal journal) {
+        this.sessionId = sessionId;
+        this.journal = journal;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public void createDevice(String deviceId, String type, Angle position) {
+        awaitDurable(apply(out -> {
+            out.writeByte(CREATE_DEVICE);
+            writeString(out, deviceId);
+            writeString(out, type);
+            out.writeDouble(position.toRadians());
+            out.writeBoolean(false);
+        }, 1, () -> super.createDevice(deviceId, type, position)));
+    }
+
+    @Override
+    public void createDevice(String deviceId, String type, Angle position, boolean isMoving) {
+        awaitDurable(apply(out -> {
+            out.writeByte(CREATE_DEVICE);
+            writeString(out, deviceId);
+            writeString(out, type);
+            out.writeDouble(position.toRadians());
+            out.writeBoolean(isMoving);
+        }, 1, () -> super.createDevice(deviceId, type, position, isMoving)));
+    }
+
+    @Override
+    public void removeDevice(String deviceId) {
+        awaitDurable(apply(out -> {
+            out.writeByte(REMOVE_DEVICE);
+            writeString(out, deviceId);
+        }, 1, () -> super.removeDevice(deviceId)));
+    }
+
+    @Override
+    public void createSatellite(String satelliteId, String type, double height, Angle position) {
+        awaitDurable(apply(out -> {
+            out.writeByte(CREATE_SATELLITE);
+            writeString(out, satelliteId);
+            writeString(out, type);
+            out.writeDouble(height);
+            out.writeDouble(position.toRadians());
+        }, 1, () -> super.createSatellite(satelliteId, type, height, position)));
+    }
+
+    @Override
+    public void removeSatellite(String satelliteId) {
+        awaitDurable(apply(out -> {
+            out.writeByte(REMOVE_SATELLITE);
+            writeString(out, satelliteId);
+        }, 1, () -> super.removeSatellite(satelliteId)));
+    }
+
+    @Override
+    public void addFileToDevice(String deviceId, String filename, String content) {
+        awaitDurable(apply(out -> {
+            out.writeByte(ADD_FILE);
+            writeString(out, deviceId);
+            writeString(out, filename);
+            writeString(out, content);
+        }, 1, () -> super.addFileToDevice(deviceId, filename, content)));
+    }
+
+    /**
+     * Adds a file as addFileToDevice does with a string, since its record has to hold the whole content anyway.
+     */
+    @Override
+    public void addFileToDevice(String deviceId, String filename, Reader content) throws IOException {
+        StringWriter text = new StringWriter();
+        content.transferTo(text);
+        addFileToDevice(deviceId, filename, text.toString());
+    }
+
+    @Override
+    public void sendFile(String fileName, String fromId, String toId) throws FileTransferException {
+        long lsn;
+        synchronized (this) {
+            lsn = record(out -> {
+                out.writeByte(SEND_FILE);
+                writeString(out, fileName);
+                writeString(out, fromId);
+                writeString(out, toId);
+            }, 1);
+            depth++;
+            try {
+                super.sendFile(fileName, fromId, toId);
+            } finally {
+                depth--;
+            }
+        }
+        awaitDurable(lsn);
+    }
+
+    @Override
+    public void createSlope(int startAngle, int endAngle, int gradient) {
+        awaitDurable(apply(out -> {
+            out.writeByte(CREATE_SLOPE);
+            out.writeInt(startAngle);
+            out.writeInt(endAngle);
+            out.writeInt(gradient);
+        }, 1, () -> super.createSlope(startAngle, endAngle, gradient)));
+    }
+
+    @Override
+    public void simulate() {
+        awaitDurable(apply(out -> {
+            out.writeByte(SIMULATE);
+            out.writeInt(1);
+        }, 1, () -> super.simulate()));
+    }
+
+    @Override
+    public void simulate(int numberOfMinutes) {
+        awaitDurable(apply(out -> {
+            out.writeByte(SIMULATE);
+            out.writeInt(numberOfMinutes);
+        }, Math.max(1, numberOfMinutes), () -> super.simulate(numberOfMinutes)));
+    }
+
+    /**
+     * Replaces the whole world as BlackoutController.restore does, then checkpoints the session straight away,
+     * since a restore can't be replayed from the journal. If the checkpoint can't be written the world is put back
+     * the way it was, which is what the journal would rebuild.
+     */
+    @Override
+    public synchronized void restore(InputStream in) throws IOException {
+        checkLoaded();
+        ByteArrayOutputStream before = new ByteArrayOutputStream();
+        checkpoint(before);
+        long checkpointsBefore = checkpoints;
+        super.restore(in);
+        try {
+            journal.checkpoint(this);
+        } catch (IOException | RuntimeException e) {
+            // once the checkpoint is in place the restored world is the one that survives a crash, even if
+            // clearing away the segments it covers failed
+            if (checkpoints == checkpointsBefore) {
+                super.restore(new ByteArrayInputStream(before.toByteArray()));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Records every call an import makes as BlackoutController.importScenario does, but only waits for them to be
+     * durable once at the end, instead of once for each of them.
+     */
+    @Override
+    public synchronized int importScenario(Reader reader) throws IOException {
+        importing = true;
+        int imported;
+        try {
+            imported = super.importScenario(reader);
+        } catch (IOException | RuntimeException e) {
+            // the records made before it failed still have to be durable before the caller hears about it
+            try {
+                journal.awaitDurable(lastLsn);
+            } catch (RuntimeException journalFailure) {
+                e.addSuppressed(journalFailure);
+            }
+            throw e;
+        } finally {
+            importing = false;
+        }
+        journal.awaitDurable(lastLsn);
+        return imported;
+    }
+
+    /**
+     * Waits for a call's record to be durable, unless it was made by an import, which waits once for all of them.
+     */
+    private void awaitDurable(long lsn) {
+        if (!(importing && Thread.holdsLock(this))) {
+            journal.awaitDurable(lsn);
+        }
+    }
+
+    /**
+     * Records a call unless it is being made from inside another one, then carries it out.
+     *
+     * @param work roughly how long the call takes to replay, in ticks
+     * @return the call's record, or 0 if it wasn't recorded
+     */
+    private synchronized long apply(Command command, long work, Runnable action) {
+        long lsn = record(command, work);
+        depth++;
+        try {
+            action.run();
+        } finally {
+            depth--;
+        }
+        return lsn;
+    }
+
+    private long record(Command command, long work) {
+        if (depth > 0) {
+            return 0;
+        }
+        checkLoaded();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            command.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long lsn = journal.append(this, bytes.toByteArray());
+        unsaved(lsn, work);
+        requestCheckpointIfDue();
+        return lsn;
+    }
+
+    /**
+     * Keeps track of how much replaying the journal since the last checkpoint would cost.
+     */
+    private void unsaved(long lsn, long work) {
+        lastLsn = lsn;
+        holdFrom(lsn);
+        unsavedWork += work;
+    }
+
+    /**
+     * Keeps the journal from deleting the given record until the session is next checkpointed. Called by the
+     * journal as it appends the record.
+     */
+    void holdFrom(long lsn) {
+        if (firstUnsavedLsn == Long.MAX_VALUE) {
+            firstUnsavedLsn = lsn;
+        }
+    }
+
+    /**
+     * Asks the journal for a new checkpoint once replaying since the last one would take too long.
+     */
+    synchronized void requestCheckpointIfDue() {
+        if (unsavedWork >= journal.getCheckpointInterval() && !checkpointRequested) {
+            checkpointRequested = true;
+            journal.requestCheckpoint(this);
+        }
+    }
+
+    /**
+     * Carries out a recorded call again without recording it. A call that failed when it was recorded fails the
+     * same way again, having made the same changes first, so failures are ignored.
+     */
+    synchronized void replay(long lsn, byte[] command) throws IOException {
+        DataInput in = new DataInputStream(new ByteArrayInputStream(command));
+        byte type = in.readByte();
+        long work = 1;
+        depth++;
+        try {
+            switch (type) {
+            case CREATE_DEVICE:
+                super.createDevice(readString(in), readString(in), Angle.fromRadians(in.readDouble()),
+                        in.readBoolean());
+                break;
+            case REMOVE_DEVICE:
+                super.removeDevice(readString(in));
+                break;
+            case CREATE_SATELLITE:
+                super.createSatellite(readString(in), readString(in), in.readDouble(),
+                        Angle.fromRadians(in.readDouble()));
+                break;
+            case REMOVE_SATELLITE:
+                super.removeSatellite(readString(in));
+                break;
+            case ADD_FILE:
+                super.addFileToDevice(readString(in), readString(in), readString(in));
+                break;
+            case SEND_FILE:
+                super.sendFile(readString(in), readString(in), readString(in));
+                break;
+            case CREATE_SLOPE:
+                super.createSlope(in.readInt(), in.readInt(), in.readInt());
+                break;
+            case SIMULATE:
+                int minutes = in.readInt();
+                work = Math.max(1, minutes);
+                super.simulate(minutes);
+                break;
+            default:
+                throw new IOException("Unknown journal command " + type);
+            }
+        } catch (FileTransferException | RuntimeException e) {
+            // failed the same way when it was first made
+        } finally {
+            depth--;
+        }
+        unsaved(lsn, work);
+    }
+
+    /**
+     * Replaces the world with a checkpointed one without checkpointing it again.
+     */
+    synchronized void load(InputStream in, long lsn) throws IOException {
+        depth++;
+        try {
+            super.restore(in);
+        } finally {
+            depth--;
+        }
+        lastLsn = lsn;
+    }
+
+    /**
+     * Keeps the empty world of a session discarded after the given record, so its records up to that one are
+     * still skipped.
+     */
+    synchronized void startAfter(long lsn) {
+        lastLsn = lsn;
+    }
+
+    /**
+     * Stops any more calls being made, once the journal has let go of the session.
+     */
+    synchronized void unload() {
+        unloaded = true;
+    }
+
+    synchronized boolean isUnloaded() {
+        return unloaded;
+    }
+
+    private void checkLoaded() {
+        if (unloaded) {
+            throw new IllegalStateException("Session " + sessionId + " has been unloaded");
+        }
+    }
+
+    synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    long getFirstUnsavedLsn() {
+        return firstUnsavedLsn;
+    }
+
+    /**
+     * Called with the monitor held once everything up to the last record has been checkpointed.
+     */
+    void saved() {
+        checkpoints++;
+        firstUnsavedLsn = Long.MAX_VALUE;
+        unsavedWork = 0;
+        checkpointRequested = false;
+    }
+
+    /**
+     * Lets the next call ask for a checkpoint again after the last one couldn't be written.
+     */
+    synchronized void checkpointFailed() {
+        checkpointRequested = false;
+    }
+
+    private static void writeString(DataOutput out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    @FunctionalInterface
+    private interface Command {
+        void write(DataOutput out) throws IOException;
+    }
+}
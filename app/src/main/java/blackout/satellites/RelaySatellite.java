@@ -1,38 +1,33 @@
 package unsw.blackout.satellites;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
+import unsw.blackout.EntityKind;
 import unsw.blackout.File;
 import unsw.blackout.FileTransferException;
+import unsw.blackout.SimulationClock;
 import unsw.utils.Angle;
 
 public class RelaySatellite extends Satellite {
     private final int linearVelocity = 1500;
     private final int maxRange = 300000;
-    private int orientation;
-    private boolean inRange;
     private final int thresholdAngle = 345;
     private final int startAngle = 140;
     private final int endAngle = 190;
     private final ArrayList<String> allowedConnections;
 
-    public RelaySatellite(String satelliteId, String satelliteType, double satelliteHeight, Angle satellitePosition) {
-        super(satelliteId, satelliteType, satelliteHeight, satellitePosition);
-        this.allowedConnections = new ArrayList<String>(Arrays.asList("HandheldDevice", "LaptopDevice", "DesktopDevice",
-                "StandardSatellite", "TeleportingSatellite", "RelaySatellite"));
-
-        double satPos = satellitePosition.toDegrees();
-        inRange = false;
-
-        if (satPos > endAngle && satPos < thresholdAngle) {
-            orientation = 1;
-        } else if (satPos < startAngle && satPos > 0 || (satPos > thresholdAngle && satPos < 360)) {
-            orientation = -1;
-        } else if (satPos > startAngle && satPos < endAngle) {
-            inRange = true;
-            orientation = 1;
-        }
+    // every position the relay visits is the starting position plus a whole number of steps. It heads towards
+    // the 140 to 190 degree region, and once there bounces between the steps either side of it
+    private int orientation;
+    private long entryTick;
+    private long lowIndex;
+    private long highIndex;
+
+    public RelaySatellite(String satelliteId, String satelliteType, double satelliteHeight, Angle satellitePosition,
+            SimulationClock clock) {
+        super(satelliteId, satelliteType, satelliteHeight, satellitePosition, clock);
+        this.allowedConnections = new ArrayList<String>(getKind().getAllowedConnections());
+        planOrbit();
     }
 
     public int getSendingBytes() {
@@ -55,6 +50,10 @@ public class RelaySatellite extends Satellite {
         return linearVelocity;
     }
 
+    public EntityKind getKind() {
+        return EntityKind.RELAY_SATELLITE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
@@ -63,54 +62,91 @@ public class RelaySatellite extends Satellite {
         return linearVelocity / getSatelliteHeight();
     }
 
+    /**
+     * @return -1 while moving anticlockwise, 1 while moving clockwise and 0 if the relay never moves
+     */
     public int getOrientation() {
-        return orientation;
+        long ticks = getOrbitTicks();
+        if (orientation == 0 || !isBouncing(ticks)) {
+            return orientation;
+        }
+        long phase = bouncePhase(ticks);
+        return phase > 0 && phase <= highIndex - lowIndex ? -1 : 1;
     }
 
-    public void setOrientation(int orientation) {
-        this.orientation = orientation;
+    public boolean getInRange() {
+        return entryTick >= 0 && getOrbitTicks() >= entryTick;
     }
 
-    public void setNewPosition() {
-        Angle angularVAngle = Angle.fromRadians(getAngularVelocity());
-        Angle currAngle = getSatellitePosition();
-
-        if (!getInRange()) {
-            if (orientation == -1) {
-                setSatellitePosition(currAngle.add(angularVAngle));
-            } else if (orientation == 1) {
-                setSatellitePosition(currAngle.subtract(angularVAngle));
-            }
-            if (currAngle.toDegrees() >= startAngle && currAngle.toDegrees() <= endAngle) {
-                setInRange(true);
-            }
-            return;
-        }
+    protected void planOrbit() {
+        double start = getOrbitRadians();
+        double step = getAngularVelocity();
+        double satPos = Math.toDegrees(start);
+        orientation = 0;
+        entryTick = -1;
 
-        if (Math.abs((int) currAngle.toDegrees()) < startAngle) {
-            setSatellitePosition(currAngle.add(angularVAngle));
-            setOrientation(-1);
-            return;
-        } else if (Math.abs((int) currAngle.toDegrees()) > endAngle) {
-            setSatellitePosition(currAngle.subtract(angularVAngle));
-            setOrientation(1);
-            return;
+        if (satPos > endAngle && satPos < thresholdAngle) {
+            orientation = 1;
+            entryTick = 1 + firstIndexReaching(ticks -> Math.toDegrees(start - ticks * step) <= endAngle,
+                    (long) Math.ceil((start - Math.toRadians(endAngle)) / step), 0);
+        } else if (satPos < startAngle && satPos > 0) {
+            orientation = -1;
+            entryTick = 1 + firstIndexReaching(ticks -> Math.toDegrees(start + ticks * step) >= startAngle,
+                    (long) Math.ceil((Math.toRadians(startAngle) - start) / step), 0);
+        } else if (satPos > thresholdAngle && satPos < 360) {
+            // never wraps past 360 degrees, so never reaches the region
+            orientation = -1;
+        } else if (satPos > startAngle && satPos < endAngle) {
+            orientation = 1;
+            entryTick = 0;
+        } else if (satPos >= startAngle && satPos <= endAngle) {
+            // sitting exactly on the edge of the region with no direction, so it stays put
+            entryTick = 1;
         }
 
-        if (orientation == -1) {
-            setSatellitePosition(currAngle.add(angularVAngle));
-        } else if (orientation == 1) {
-            setSatellitePosition(currAngle.subtract(angularVAngle));
+        // the lowest step is the last one below 140 degrees and the highest the first one at 191 or over
+        lowIndex = firstIndexReaching(index -> Math.toDegrees(start + index * step) >= startAngle,
+                (long) Math.ceil((Math.toRadians(startAngle) - start) / step), Long.MIN_VALUE) - 1;
+        highIndex = firstIndexReaching(index -> Math.toDegrees(start + index * step) >= endAngle + 1,
+                (long) Math.ceil((Math.toRadians(endAngle + 1) - start) / step), Long.MIN_VALUE);
+    }
+
+    protected double radiansAfter(long ticks) {
+        double start = getOrbitRadians();
+        double step = getAngularVelocity();
+        if (orientation == 0) {
+            return start;
+        } else if (!isBouncing(ticks)) {
+            return start - orientation * ticks * step;
         }
 
+        long height = highIndex - lowIndex;
+        long phase = bouncePhase(ticks);
+        long index = phase <= height ? lowIndex + phase : highIndex - (phase - height);
+        return start + index * step;
     }
 
-    public boolean getInRange() {
-        return inRange;
+    private boolean isBouncing(long ticks) {
+        return entryTick >= 0 && ticks > entryTick;
     }
 
-    public void setInRange(boolean inRange) {
-        this.inRange = inRange;
+    /**
+     * @return how far the relay is through a bounce, 0 at the lowest step and highIndex - lowIndex at the highest
+     */
+    private long bouncePhase(long ticks) {
+        long height = highIndex - lowIndex;
+        long entryIndex = -orientation * entryTick;
+        long entryPhase;
+        if (entryIndex <= lowIndex) {
+            entryPhase = 0;
+        } else if (entryIndex >= highIndex) {
+            entryPhase = height;
+        } else if (orientation == -1) {
+            entryPhase = entryIndex - lowIndex;
+        } else {
+            entryPhase = height + highIndex - entryIndex;
+        }
+        return (entryPhase + ticks - entryTick) % (2 * height);
     }
 
 }
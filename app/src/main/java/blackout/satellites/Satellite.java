@@ -1,39 +1,63 @@
 package unsw.blackout.satellites;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.function.LongPredicate;
 
+import unsw.blackout.EntityKind;
+import unsw.blackout.EntityStore;
 import unsw.blackout.File;
 import unsw.blackout.FileTransferException;
+import unsw.blackout.Link;
+import unsw.blackout.LinkGraph;
+import unsw.blackout.LinkTable;
+import unsw.blackout.SimulationClock;
+import unsw.blackout.StorageCounters;
 import unsw.blackout.devices.Device;
-import unsw.blackout.devices.DesktopDevice;
 import unsw.response.models.EntityInfoResponse;
 import unsw.response.models.FileInfoResponse;
 import unsw.utils.Angle;
-import unsw.utils.MathsHelper;
 
+/**
+ * A satellite's position is a closed-form function of how many ticks have passed since its orbit started, so
+ * nothing has to happen to a satellite while the clock moves on. The position is only worked out when someone
+ * asks for it and is then cached until the clock changes.
+ *
+ * Positions are worked out and cached as plain radians. An Angle is only made when one is asked for through
+ * getSatellitePosition, so ticks that only need the geometry don't allocate.
+ */
 public abstract class Satellite {
+    protected static final double FULL_CIRCLE = Angle.fromDegrees(360).toRadians();
+
     private String satelliteId;
     private String satelliteType;
     private double satelliteHeight;
     private Angle satellitePosition;
-    private Map<String, File> filesMap;
-
-    public Satellite(String satelliteId, String satelliteType, double satelliteHeight, Angle satellitePosition) {
+    private double positionRadians;
+    private long positionTick;
+    private double orbitRadians;
+    private long orbitTick;
+    private final SimulationClock clock;
+    private final StorageCounters storageCounters = new StorageCounters();
+    private final Map<String, File> filesMap = new StoredFiles(storageCounters);
+
+    public Satellite(String satelliteId, String satelliteType, double satelliteHeight, Angle satellitePosition,
+            SimulationClock clock) {
         this.satelliteId = satelliteId;
         this.satelliteType = satelliteType;
         this.satelliteHeight = satelliteHeight;
+        this.clock = clock;
         this.satellitePosition = satellitePosition;
-        this.filesMap = new HashMap<>();
+        this.positionRadians = satellitePosition.toRadians();
+        this.positionTick = clock.getTick();
+        this.orbitRadians = positionRadians;
+        this.orbitTick = positionTick;
     }
 
     public void sendFileHelperToDevice(String fileName, File file, String fromId, String toId,
-            Map<List<String>, List<File>> filesToTransfer, Map<String, Device> deviceMap,
-            Map<String, Satellite> satelliteMap) throws FileTransferException {
+            LinkTable linkTable, Map<String, Device> deviceMap,
+            LinkGraph linkGraph) throws FileTransferException {
 
         Device currDevice = deviceMap.get(toId);
 
@@ -50,20 +74,15 @@ public abstract class Satellite {
         file.setFrom(fromId);
         file.setTo(toId);
 
-        if (communicableEntitiesInRangeHelper(satelliteMap, deviceMap, fromId).contains(toId)) {
-            currDevice.addFiletoDevice(file, "", file.getSize());
-            List<File> newFilesArray = filesToTransfer.get(Arrays.asList(fromId, toId));
-            if (newFilesArray == null) {
-                newFilesArray = new ArrayList<>();
-                filesToTransfer.put(Arrays.asList(fromId, toId), newFilesArray);
-            }
-            newFilesArray.add(file);
+        if (linkGraph.canCommunicate(fromId, toId)) {
+            currDevice.addFiletoDevice(file, 0, file.getSize());
+            linkTable.getOrCreate(fromId, toId).getFiles().add(file);
         }
     }
 
     public void sendFileHelperToSatellite(String fileName, File file, String fromId, String toId,
-            Map<List<String>, List<File>> filesToTransfer, Map<String, Device> deviceMap,
-            Map<String, Satellite> satelliteMap) throws FileTransferException {
+            LinkTable linkTable, Map<String, Satellite> satelliteMap,
+            LinkGraph linkGraph) throws FileTransferException {
 
         Satellite currSatellite = satelliteMap.get(toId);
 
@@ -81,84 +100,42 @@ public abstract class Satellite {
         }
 
         if (!currSatellite.storageOverflow(file)) {
-            List<File> newFilesArray = filesToTransfer.get(Arrays.asList(fromId, toId));
+            Link link = linkTable.get(fromId, toId);
             currSatellite.removeFiles(file);
-            newFilesArray.remove(file);
+            link.getFiles().remove(file);
         }
 
         file.setByteSent(0);
         file.setFrom(fromId);
         file.setTo(toId);
 
-        if (file != null && communicableEntitiesInRangeHelper(satelliteMap, deviceMap, fromId).contains(toId)) {
-            currSatellite.addFiletoSatellite(file, "", file.getSize());
-            List<File> newFilesArray = filesToTransfer.get(Arrays.asList(fromId, toId));
-            if (newFilesArray == null) {
-                newFilesArray = new ArrayList<>();
-                filesToTransfer.put(Arrays.asList(fromId, toId), newFilesArray);
-            }
-            newFilesArray.add(file);
+        if (file != null && linkGraph.canCommunicate(fromId, toId)) {
+            currSatellite.addFiletoSatellite(file, 0, file.getSize());
+            linkTable.getOrCreate(fromId, toId).getFiles().add(file);
         }
     }
 
-    public List<String> communicableEntitiesInRangeHelper(Map<String, Satellite> satelliteMap,
-            Map<String, Device> deviceMap, String id) {
+    public List<String> entitiesInDirectRangeHelper(EntityStore entityStore) {
 
         int maxRange = this.getMaxRange();
+        int slot = entityStore.slotOf(satelliteId);
+        int kindMask = getKind().getDirectMask();
         ArrayList<String> nearbyEntities = new ArrayList<>();
 
-        for (Map.Entry<String, Satellite> entry : satelliteMap.entrySet()) {
-            Satellite nextSatellite = entry.getValue();
-
-            double distanceBetweenSatellites = MathsHelper.getDistance(this.getSatelliteHeight(),
-                    this.getSatellitePosition(), nextSatellite.getSatelliteHeight(),
-                    nextSatellite.getSatellitePosition());
-
-            boolean isVisible = MathsHelper.isVisible(this.getSatelliteHeight(), this.getSatellitePosition(),
-                    nextSatellite.getSatelliteHeight(), nextSatellite.getSatellitePosition());
-
-            if (distanceBetweenSatellites != 0.0 && distanceBetweenSatellites < maxRange
-                    && !nearbyEntities.contains(nextSatellite.getSatelliteId()) && isVisible) {
-                nearbyEntities.add(nextSatellite.getSatelliteId());
+        entityStore.forEachSatelliteNear(slot, maxRange, kindMask, nextSlot -> {
+            if (!entityStore.isColocated(slot, nextSlot) && entityStore.isLinked(slot, nextSlot, maxRange)) {
+                nearbyEntities.add(entityStore.idAt(nextSlot));
             }
-        }
-
-        for (Map.Entry<String, Device> entry : deviceMap.entrySet()) {
-            Device nextDevice = entry.getValue();
+        });
 
-            double distanceBetweenSatelliteAndDevice = MathsHelper.getDistance(this.getSatelliteHeight(),
-                    this.getSatellitePosition(), nextDevice.getDevicePosition());
-
-            boolean isVisible = MathsHelper.isVisible(this.getSatelliteHeight(), this.getSatellitePosition(),
-                    nextDevice.getDevicePosition());
-
-            if (distanceBetweenSatelliteAndDevice < maxRange && !nearbyEntities.contains(nextDevice.getDeviceId())
-                    && isVisible && this.getAllowedConnections().contains(nextDevice.getClass().getSimpleName())) {
-                nearbyEntities.add(nextDevice.getDeviceId());
+        // only devices this satellite accepts are visited
+        entityStore.forEachDeviceNear(slot, maxRange, kindMask, nextSlot -> {
+            if (entityStore.isLinked(slot, nextSlot, maxRange)) {
+                nearbyEntities.add(entityStore.idAt(nextSlot));
             }
-        }
-
-        List<String> relayList = nearbyEntities.stream()
-                .filter(element -> satelliteMap.get(element) instanceof RelaySatellite).flatMap(element -> {
-                    RelaySatellite relaySatellite = (RelaySatellite) satelliteMap.get(element);
-                    List<String> closeEntities = relaySatellite.communicableEntitiesInRangeHelper(satelliteMap,
-                            deviceMap, id);
-                    return closeEntities.stream();
-                }).collect(Collectors.toList());
-
-        nearbyEntities.addAll(relayList);
-
-        if (satelliteMap.get(id) instanceof StandardSatellite) {
-            nearbyEntities.removeIf(element -> {
-                Device device = deviceMap.get(element);
-                return device instanceof DesktopDevice;
-            });
-        }
-
-        nearbyEntities.remove(this.satelliteId);
+        });
 
         return nearbyEntities;
-
     }
 
     public EntityInfoResponse getInfoHelper(Map<String, FileInfoResponse> filesMap) {
@@ -169,7 +146,7 @@ public abstract class Satellite {
             filesMap.put(file.getFilename(), response);
         }
 
-        return new EntityInfoResponse(this.satelliteId, this.satellitePosition, this.satelliteHeight,
+        return new EntityInfoResponse(this.satelliteId, getSatellitePosition(), this.satelliteHeight,
                 this.satelliteType, filesMap);
     }
 
@@ -179,10 +156,23 @@ public abstract class Satellite {
 
     public abstract ArrayList<String> getAllowedConnections();
 
-    public abstract void setNewPosition();
+    public abstract double getAngularVelocity();
+
+    /**
+     * Works out any turning points of the orbit from its starting position. Called whenever the orbit restarts.
+     */
+    protected abstract void planOrbit();
+
+    /**
+     * @param ticks the number of ticks since the orbit started
+     * @return the position in radians the given number of ticks into the orbit
+     */
+    protected abstract double radiansAfter(long ticks);
 
     public abstract boolean storageOverflow(File file) throws FileTransferException;
 
+    public abstract EntityKind getKind();
+
     public abstract int getMaxRange();
 
     public String getSatelliteId() {
@@ -210,15 +200,121 @@ public abstract class Satellite {
     }
 
     public Angle getSatellitePosition() {
+        double radians = getSatelliteRadians();
+        if (satellitePosition == null) {
+            satellitePosition = Angle.fromRadians(radians);
+        }
         return satellitePosition;
     }
 
+    /**
+     * @return the satellite's position at the current tick in radians
+     */
+    public double getSatelliteRadians() {
+        long tick = clock.getTick();
+        if (tick != positionTick) {
+            positionRadians = radiansAfter(tick - orbitTick);
+            positionTick = tick;
+            satellitePosition = null;
+        }
+        return positionRadians;
+    }
+
+    /**
+     * @return where the satellite will be at the given tick, without changing anything
+     */
+    public Angle getSatellitePositionAt(long tick) {
+        return Angle.fromRadians(getSatelliteRadiansAt(tick));
+    }
+
+    /**
+     * @return where the satellite will be at the given tick in radians, without changing anything
+     */
+    public double getSatelliteRadiansAt(long tick) {
+        return radiansAfter(tick - orbitTick);
+    }
+
+    /**
+     * @return the first tick after the given one where the satellite jumps rather than moving a step, or
+     *         Long.MAX_VALUE if it never does
+     */
+    public long nextJumpAfter(long tick) {
+        long ticks = nextJumpAfterTicks(tick - orbitTick);
+        return ticks == Long.MAX_VALUE ? ticks : orbitTick + ticks;
+    }
+
+    /**
+     * @param ticks the number of ticks since the orbit started
+     * @return the number of ticks into the orbit of the next jump after the given one, Long.MAX_VALUE if none
+     */
+    protected long nextJumpAfterTicks(long ticks) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Restarts the satellite's orbit from the given position at the current tick.
+     */
     public void setSatellitePosition(Angle satellitePosition) {
         if (satellitePosition.toDegrees() < 0) {
             this.satellitePosition = satellitePosition.add(Angle.fromDegrees(360));
         } else {
             this.satellitePosition = satellitePosition;
         }
+        this.positionRadians = this.satellitePosition.toRadians();
+        this.positionTick = clock.getTick();
+        this.orbitRadians = positionRadians;
+        this.orbitTick = positionTick;
+        planOrbit();
+    }
+
+    /**
+     * Puts the satellite on an orbit that started from the given position at the given tick, which may be before
+     * the current one. Used to bring a satellite back exactly as it was checkpointed.
+     */
+    public void restoreOrbit(double orbitRadians, long orbitTick) {
+        this.orbitRadians = orbitRadians;
+        this.orbitTick = orbitTick;
+        planOrbit();
+        this.positionRadians = radiansAfter(clock.getTick() - orbitTick);
+        this.positionTick = clock.getTick();
+        this.satellitePosition = null;
+    }
+
+    /**
+     * @return the position in radians the current orbit started from
+     */
+    public double getOrbitRadians() {
+        return orbitRadians;
+    }
+
+    /**
+     * @return the tick the current orbit started at
+     */
+    public long getOrbitTick() {
+        return orbitTick;
+    }
+
+    /**
+     * @return the number of ticks since the orbit started
+     */
+    protected long getOrbitTicks() {
+        return clock.getTick() - orbitTick;
+    }
+
+    /**
+     * Finds the first index at or above lowest where a condition holds, given that once it holds it keeps
+     * holding. The search starts from an estimate and steps from there, so a close estimate makes it constant
+     * time while the condition itself decides the answer.
+     */
+    protected static long firstIndexReaching(LongPredicate reached, long estimate, long lowest) {
+        long index = Math.max(estimate, lowest);
+        while (index > lowest && reached.test(index - 1)) {
+            index--;
+        }
+        while (!reached.test(index)) {
+            index++;
+        }
+        return index;
     }
 
     public Map<String, File> getFilesMap() {
@@ -226,11 +322,28 @@ public abstract class Satellite {
     }
 
     public void setFilesMap(Map<String, File> filesMap) {
-        this.filesMap = filesMap;
+        this.filesMap.clear();
+        this.filesMap.putAll(filesMap);
+    }
+
+    /**
+     * @return running totals over the files held, kept up to date as files arrive, make progress and leave
+     */
+    public StorageCounters getStorageCounters() {
+        return storageCounters;
+    }
+
+    /**
+     * Checks the running storage totals against the files actually held.
+     *
+     * @throws IllegalStateException if they have drifted apart
+     */
+    public void verifyStorageCounters() {
+        storageCounters.verify(filesMap.values());
     }
 
-    public void addFiletoSatellite(File file, String content, int size) {
-        File newfile = new File(file, content, size);
+    public void addFiletoSatellite(File file, int contentLength, int size) {
+        File newfile = new File(file, contentLength, size);
         filesMap.put(file.getFilename(), newfile);
     }
 
@@ -1,12 +1,14 @@
 package unsw.blackout.satellites;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import unsw.utils.Angle;
+import unsw.blackout.EntityKind;
 import unsw.blackout.File;
 
 import unsw.blackout.FileTransferException;
+import unsw.blackout.SimulationClock;
+import unsw.blackout.StorageCounters;
 
 public class StandardSatellite extends Satellite {
     private final int linearVelocity = 2500;
@@ -18,10 +20,10 @@ public class StandardSatellite extends Satellite {
     private final ArrayList<String> allowedConnections;
 
     public StandardSatellite(String satelliteId, String satelliteType, double satelliteHeight,
-            Angle satellitePosition) {
-        super(satelliteId, satelliteType, satelliteHeight, satellitePosition);
-        this.allowedConnections = new ArrayList<String>(Arrays.asList("HandheldDevice", "LaptopDevice",
-                "StandardSatellite", "TeleportingSatellite", "RelaySatellite"));
+            Angle satellitePosition, SimulationClock clock) {
+        super(satelliteId, satelliteType, satelliteHeight, satellitePosition, clock);
+        this.allowedConnections = new ArrayList<String>(getKind().getAllowedConnections());
+        planOrbit();
     }
 
     public int getSendingBytes() {
@@ -40,6 +42,10 @@ public class StandardSatellite extends Satellite {
         return linearVelocity;
     }
 
+    public EntityKind getKind() {
+        return EntityKind.STANDARD_SATELLITE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
@@ -50,18 +56,20 @@ public class StandardSatellite extends Satellite {
 
     public boolean storageOverflow(File currFile) throws FileTransferException {
 
+        StorageCounters counters = getStorageCounters();
+
         // + 1 for curr file being transfered
-        long count = getFilesMap().values().stream().filter(file -> file.getByteSent() != file.getSize()).count() + 1;
+        long count = counters.getInFlightCount() + 1;
 
         if (count > gettingBytes) {
             throw new FileTransferException.VirtualFileNoBandwidthException(currFile.getFilename());
         }
 
-        if (getFilesMap().values().size() + 1 > 3) {
+        if (counters.getFileCount() + 1 > 3) {
             throw new FileTransferException.VirtualFileNoStorageSpaceException("Max Files Reached");
         }
 
-        int totalSize = getFilesMap().values().stream().mapToInt(file -> file.getSize()).sum() + currFile.getSize();
+        long totalSize = counters.getBytesReserved() + counters.getBytesStored() + currFile.getSize();
 
         if (totalSize > maxBytesStorage) {
             throw new FileTransferException.VirtualFileNoStorageSpaceException("Max Storage Reached");
@@ -70,9 +78,18 @@ public class StandardSatellite extends Satellite {
         return true;
     }
 
-    public void setNewPosition() {
-        Angle angularVAngle = Angle.fromRadians(getAngularVelocity());
-        Angle currAngle = getSatellitePosition();
-        setSatellitePosition(currAngle.subtract(angularVAngle));
+    protected void planOrbit() {
+    }
+
+    protected double radiansAfter(long ticks) {
+        // moves clockwise and wraps back to 360 degrees whenever it passes 0
+        double radians = getOrbitRadians() - ticks * getAngularVelocity();
+        if (radians < 0) {
+            radians = radians % FULL_CIRCLE;
+            if (radians < 0) {
+                radians += FULL_CIRCLE;
+            }
+        }
+        return radians;
     }
 }
@@ -0,0 +1,94 @@
+package unsw.blackout.satellites;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import unsw.blackout.File;
+import unsw.blackout.StorageCounters;
+
+/**
+ * A satellite's files by name. Every way of adding or removing a file, including through the views, goes
+ * through the satellite's storage counters, and files held here report their own changes to them.
+ */
+final class StoredFiles extends AbstractMap<String, File> {
+    private final Map<String, File> files = new HashMap<>();
+    private final StorageCounters counters;
+
+    StoredFiles(StorageCounters counters) {
+        this.counters = counters;
+    }
+
+    @Override
+    public File get(Object key) {
+        return files.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return files.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public File put(String key, File file) {
+        File old = files.put(key, file);
+        if (old != null) {
+            old.detachStorage(counters);
+        }
+        file.attachStorage(counters);
+        return old;
+    }
+
+    @Override
+    public File remove(Object key) {
+        File old = files.remove(key);
+        if (old != null) {
+            old.detachStorage(counters);
+        }
+        return old;
+    }
+
+    @Override
+    public Set<Map.Entry<String, File>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, File>> iterator() {
+                Iterator<Map.Entry<String, File>> iterator = files.entrySet().iterator();
+                return new Iterator<>() {
+                    private File current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, File> next() {
+                        Map.Entry<String, File> entry = iterator.next();
+                        current = entry.getValue();
+                        return new AbstractMap.SimpleImmutableEntry<>(entry);
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                        current.detachStorage(counters);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return files.size();
+            }
+        };
+    }
+}
@@ -1,31 +1,36 @@
 package unsw.blackout.satellites;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
+import unsw.blackout.EntityKind;
 import unsw.blackout.FileTransferException;
 import unsw.blackout.File;
+import unsw.blackout.SimulationClock;
+import unsw.blackout.StorageCounters;
 import unsw.utils.Angle;
 
 public class TeleportingSatellite extends Satellite {
     private final int linearVelocity = 1000;
     private final int maxRange = 200000;
-    private int orientation;
+    private final int teleportAngle = 180;
     private final int sendingBytes = 10;
     private final int gettingBytes = 15;
     private final ArrayList<String> allowedConnections;
     private int minutes;
-    private boolean hasTeleported;
     private final int maxBytesStorage = 200;
 
+    // once it first reaches 180 degrees the orbit repeats: down from 360 to 180, teleport, up from 0 to 180,
+    // teleport, and so on
+    private long firstTeleport;
+    private long descendingTicks;
+    private long cycleTicks;
+
     public TeleportingSatellite(String satelliteId, String satelliteType, double satelliteHeight,
-            Angle satellitePosition) {
-        super(satelliteId, satelliteType, satelliteHeight, satellitePosition);
-        this.allowedConnections = new ArrayList<String>(Arrays.asList("HandheldDevice", "LaptopDevice", "DesktopDevice",
-                "StandardSatellite", "TeleportingSatellite", "RelaySatellite"));
-        this.orientation = -1;
+            Angle satellitePosition, SimulationClock clock) {
+        super(satelliteId, satelliteType, satelliteHeight, satellitePosition, clock);
+        this.allowedConnections = new ArrayList<String>(getKind().getAllowedConnections());
         this.minutes = 0;
-        this.hasTeleported = false;
+        planOrbit();
     }
 
     public int getMinutes() {
@@ -38,13 +43,14 @@ public class TeleportingSatellite extends Satellite {
 
     public boolean storageOverflow(File currfile) throws FileTransferException {
 
-        long count = getFilesMap().values().stream().filter(file -> file.getByteSent() != file.getSize()).count() + 1;
+        StorageCounters counters = getStorageCounters();
+        long count = counters.getInFlightCount() + 1;
 
         if (count > gettingBytes) {
             throw new FileTransferException.VirtualFileNoBandwidthException(currfile.getFilename());
         }
 
-        int totalSize = getFilesMap().values().stream().mapToInt(file -> file.getSize()).sum() + currfile.getSize();
+        long totalSize = counters.getBytesReserved() + counters.getBytesStored() + currfile.getSize();
 
         if (totalSize > maxBytesStorage) {
             throw new FileTransferException.VirtualFileNoStorageSpaceException("Max Storage Reached");
@@ -69,6 +75,10 @@ public class TeleportingSatellite extends Satellite {
         return linearVelocity;
     }
 
+    public EntityKind getKind() {
+        return EntityKind.TELEPORTING_SATELLITE;
+    }
+
     public int getMaxRange() {
         return maxRange;
     }
@@ -77,44 +87,85 @@ public class TeleportingSatellite extends Satellite {
         return linearVelocity / getSatelliteHeight();
     }
 
+    /**
+     * @return -1 while moving anticlockwise and 1 while moving clockwise
+     */
     public int getOrientation() {
-        return orientation;
+        long ticks = getOrbitTicks();
+        if (ticks < firstTeleport) {
+            return -1;
+        }
+        return (ticks - firstTeleport) % cycleTicks < descendingTicks ? 1 : -1;
     }
 
-    public void setOrientation(int orientation) {
-        this.orientation = (orientation == 1) ? -1 : 1;
+    /**
+     * @return whether the satellite teleported back to 360 degrees on the last tick
+     */
+    public boolean isHasTeleported() {
+        long ticks = getOrbitTicks();
+        if (ticks < firstTeleport) {
+            return false;
+        }
+        long phase = (ticks - firstTeleport) % cycleTicks;
+        return phase == 0 || phase == descendingTicks;
     }
 
-    public void setNewPosition() {
-        Angle angularVAngle = Angle.fromRadians(getAngularVelocity());
-        Angle currAngle = getSatellitePosition();
-
-        if (orientation == -1) {
-            setSatellitePosition(currAngle.add(angularVAngle));
-            setHasTeleported(false);
-        } else if (orientation == 1) {
-            setSatellitePosition(currAngle.subtract(angularVAngle));
-            setHasTeleported(false);
+    protected void planOrbit() {
+        // satellites orbit above Jupiter so they move less than a degree a tick and can't skip past 180 degrees
+        double start = getOrbitRadians();
+        double step = getAngularVelocity();
+
+        if (Math.toDegrees(start) < teleportAngle) {
+            firstTeleport = firstIndexReaching(ticks -> Math.toDegrees(start + ticks * step) >= teleportAngle,
+                    (long) Math.ceil((Math.PI - start) / step), 1);
+        } else if (Math.abs((int) Math.toDegrees(ascendingRadians(1))) == teleportAngle) {
+            firstTeleport = 1;
+        } else {
+            // has to go round past 360 degrees before it gets back to 180
+            firstTeleport = firstIndexReaching(ticks -> Math.toDegrees(start + ticks * step) > 360
+                    && Math.toDegrees(start + ticks * step - FULL_CIRCLE) >= teleportAngle,
+                    (long) Math.ceil((3 * Math.PI - start) / step), 1);
         }
 
-        if (Math.abs((int) getSatellitePosition().toDegrees()) == 180) {
-            setSatellitePosition(Angle.fromDegrees(360));
-            setOrientation(orientation);
-            setHasTeleported(true);
-            return;
+        descendingTicks = firstIndexReaching(ticks -> Math.toDegrees(FULL_CIRCLE - ticks * step) < teleportAngle + 1,
+                (long) Math.ceil((Math.PI - Math.toRadians(1)) / step), 1);
+        long ascendingTicks = firstIndexReaching(ticks -> Math.toDegrees(ticks * step) >= teleportAngle,
+                (long) Math.ceil(Math.PI / step), 1);
+        cycleTicks = descendingTicks + ascendingTicks;
+    }
+
+    protected double radiansAfter(long ticks) {
+        if (ticks < firstTeleport) {
+            return ascendingRadians(ticks);
         }
 
-        if (getSatellitePosition().toDegrees() > 360) {
-            setSatellitePosition(getSatellitePosition().subtract(Angle.fromDegrees(360)));
+        double step = getAngularVelocity();
+        long phase = (ticks - firstTeleport) % cycleTicks;
+        if (phase == 0 || phase == descendingTicks) {
+            return FULL_CIRCLE;
+        } else if (phase < descendingTicks) {
+            return FULL_CIRCLE - phase * step;
         }
+        return (phase - descendingTicks) * step;
     }
 
-    public boolean isHasTeleported() {
-        return hasTeleported;
+    protected long nextJumpAfterTicks(long ticks) {
+        if (ticks < firstTeleport) {
+            return firstTeleport;
+        }
+        long phase = (ticks - firstTeleport) % cycleTicks;
+        return ticks + (phase < descendingTicks ? descendingTicks : cycleTicks) - phase;
     }
 
-    public void setHasTeleported(boolean hasTeleported) {
-        this.hasTeleported = hasTeleported;
+    /**
+     * @return the position before the first teleport, which wraps back to 0 when it passes 360 degrees
+     */
+    private double ascendingRadians(long ticks) {
+        double radians = getOrbitRadians() + ticks * getAngularVelocity();
+        if (ticks > 0 && Math.toDegrees(radians) > 360) {
+            radians -= FULL_CIRCLE;
+        }
+        return radians;
     }
 
 }
@@ -0,0 +1,115 @@
+package unsw.blackout.session;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Makes the session ids handed out to clients and checks the ones they send back. A client is given a random id
+ * followed by a signature of it, so an id the server issued can be told apart from one a client made up without
+ * remembering every id ever issued. The key the signatures are made with can be kept in a file, so ids issued
+ * before a restart are still accepted after it.
+ */
+public final class SessionIds {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_BYTES = 32;
+    private static final int ID_BYTES = 16;
+    private static final char SEPARATOR = '.';
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec key;
+
+    /**
+     * Signs ids with a new random key, so they are only accepted until the server stops.
+     */
+    public SessionIds() {
+        byte[] bytes = new byte[KEY_BYTES];
+        random.nextBytes(bytes);
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    private SessionIds(byte[] bytes) {
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    /**
+     * Signs ids with the key kept in the given file, first writing a new random key there if there isn't one.
+     *
+     * @throws IOException if the file can't be written or doesn't hold a key
+     */
+    public static SessionIds open(Path keyFile) throws IOException {
+        if (!Files.exists(keyFile)) {
+            byte[] bytes = new byte[KEY_BYTES];
+            new SecureRandom().nextBytes(bytes);
+            Path temp = keyFile.resolveSibling(keyFile.getFileName() + ".new");
+            Files.deleteIfExists(temp);
+            if (keyFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                // only the server's own user can read the key
+                Files.createFile(temp,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            }
+            Files.write(temp, bytes);
+            Files.move(temp, keyFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        byte[] bytes = Files.readAllBytes(keyFile);
+        if (bytes.length != KEY_BYTES) {
+            throw new IOException(keyFile + " is not a session key");
+        }
+        return new SessionIds(bytes);
+    }
+
+    /**
+     * @return a new session id, never issued before
+     */
+    public String newId() {
+        byte[] bytes = new byte[ID_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return what to hand the client for the given session id
+     */
+    public String sign(String sessionId) {
+        return sessionId + SEPARATOR + signature(sessionId);
+    }
+
+    /**
+     * @param signed what a client sent back, or null if it sent nothing
+     * @return the session id it was given for, or null if it wasn't issued with this key
+     */
+    public String verify(String signed) {
+        int separator = signed == null ? -1 : signed.lastIndexOf(SEPARATOR);
+        if (separator <= 0) {
+            return null;
+        }
+        String sessionId = signed.substring(0, separator);
+        byte[] expected = signature(sessionId).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = signed.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        // takes as long however much of the signature is right, so it can't be guessed a character at a time
+        return MessageDigest.isEqual(expected, actual) ? sessionId : null;
+    }
+
+    private String signature(String sessionId) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] signature = mac.doFinal(sessionId.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            // every Java platform has to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package unsw.blackout.session;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import unsw.blackout.BlackoutController;
+import unsw.response.models.SessionMetricsResponse;
+
+/**
+ * Every live session's controller by session id, shared by every request thread.
+ *
+ * Looking up a session that is there takes no locks. A session that isn't is made by the factory outside of the
+ * map's locks, since it may read the session from disk, and lookups for the same id while it is being made wait
+ * for that one rather than making their own.
+ *
+ * Each lookup notes the time, and a sweep lets go of sessions that have been idle for longer than the idle
+ * timeout, then of the least recently used until the rest fit in the memory budget. A session is let go of while
+ * holding its controller's monitor, and only if it hasn't been used since the sweep chose it. Noting the time and
+ * letting go are a single compare and set, so a lookup either gets in first and keeps the session, or sees it has
+ * been let go of, waits for the eviction listener to finish with it and looks again. A request that looked it up
+ * before the sweep chose it carries on with the controller it was given.
+ */
+public final class SessionRegistry {
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final Function<String, ? extends BlackoutController> factory;
+    private final LongSupplier clock;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Session>> loads = new ConcurrentHashMap<>();
+    private volatile EvictionListener evictionListener;
+    private volatile long idleMillis = TimeUnit.HOURS.toMillis(1);
+    private volatile long budgetBytes = Long.MAX_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong budgetEvictions = new AtomicLong();
+    private volatile long footprintBytes;
+
+    /**
+     * @param factory makes the controller for a session id that isn't in the registry
+     */
+    public SessionRegistry(Function<String, ? extends BlackoutController> factory) {
+        this(factory, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the time in milliseconds
+     */
+    public SessionRegistry(Function<String, ? extends BlackoutController> factory, LongSupplier clock) {
+        this.factory = factory;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the session's controller, made by the factory if the session isn't in the registry
+     */
+    public BlackoutController get(String sessionId) {
+        while (true) {
+            Session session = sessions.get(sessionId);
+            if (session != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                session = load(sessionId);
+            }
+            if (session.markUsed(clock.getAsLong())) {
+                return session.controller;
+            }
+            // let go of just now, so it is made again once the eviction listener has finished with it
+            session.awaitRelease();
+        }
+    }
+
+    /**
+     * Makes a session with the factory, unless another lookup is already making it or has just made it.
+     */
+    private Session load(String sessionId) {
+        CompletableFuture<Session> loading = new CompletableFuture<>();
+        CompletableFuture<Session> other = loads.putIfAbsent(sessionId, loading);
+        if (other != null) {
+            try {
+                return other.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            // a load that finished just before this one started has already published its session
+            Session session = sessions.get(sessionId);
+            if (session == null) {
+                Session made = new Session(sessionId, factory.apply(sessionId));
+                session = sessions.putIfAbsent(sessionId, made);
+                session = session == null ? made : session;
+            }
+            loading.complete(session);
+            return session;
+        } catch (RuntimeException | Error e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(sessionId, loading);
+        }
+    }
+
+    /**
+     * Adds a session made elsewhere, such as one rebuilt from a journal, unless the registry already has one.
+     */
+    public void put(String sessionId, BlackoutController controller) {
+        Session session = new Session(sessionId, controller);
+        session.markUsed(clock.getAsLong());
+        sessions.putIfAbsent(sessionId, session);
+    }
+
+    /**
+     * Counts a session as used now without making it if it isn't there, for long requests that keep using it.
+     */
+    public void touch(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            session.markUsed(clock.getAsLong());
+        }
+    }
+
+    /**
+     * Sets how long a session may go unused before it is let go of, an hour by default.
+     */
+    public void setIdleTimeout(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Sets roughly how much memory all of the sessions together may take up, as BlackoutController's
+     * estimateFootprint counts it. Unlimited by default.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Sets what to do with each session let go of, called holding its controller's monitor once the registry no
+     * longer has it.
+     */
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Sweeps the registry every given number of milliseconds on a background thread.
+     */
+    public void startSweeping(long periodMillis) {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "blackout-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                // a listener that failed for one session mustn't stop the sweeps
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lets go of every session idle for too long, then of the least recently used sessions until the rest fit in
+     * the memory budget. Measuring a session waits for anything else using it to finish.
+     */
+    public synchronized void sweep() {
+        long now = clock.getAsLong();
+        List<Session> kept = new ArrayList<>();
+        for (Session session : sessions.values()) {
+            session.sweptLastUsed = session.lastUsed.get();
+            if (now - session.sweptLastUsed >= idleMillis && evict(session, true)) {
+                idleEvictions.incrementAndGet();
+            } else {
+                kept.add(session);
+            }
+        }
+
+        long total = 0;
+        for (Session session : kept) {
+            synchronized (session.controller) {
+                session.footprint = session.controller.estimateFootprint();
+            }
+            total += session.footprint;
+        }
+
+        if (total > budgetBytes) {
+            kept.sort(Comparator.comparingLong(session -> session.sweptLastUsed));
+            for (Session session : kept) {
+                if (total <= budgetBytes) {
+                    break;
+                } else if (evict(session, false)) {
+                    budgetEvictions.incrementAndGet();
+                    total -= session.footprint;
+                }
+            }
+        }
+        footprintBytes = total;
+    }
+
+    /**
+     * @return false if the session has been used since the sweep looked at it
+     */
+    private boolean evict(Session session, boolean idle) {
+        synchronized (session.controller) {
+            if (!session.lastUsed.compareAndSet(session.sweptLastUsed, EVICTED)) {
+                return false;
+            }
+            try {
+                EvictionListener listener = evictionListener;
+                if (listener != null) {
+                    listener.evicted(session.id, session.controller, idle);
+                }
+            } finally {
+                // only once the listener is done, so the factory never makes a session the listener still has
+                sessions.remove(session.id, session);
+                session.released.countDown();
+            }
+            return true;
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the registry's counters, with the memory the sessions took up as of the last sweep
+     */
+    public SessionMetricsResponse getMetrics() {
+        return new SessionMetricsResponse(sessions.size(), hits.sum(), misses.sum(), idleEvictions.get(),
+                budgetEvictions.get(), footprintBytes);
+    }
+
+    /**
+     * Told about each session the registry lets go of.
+     */
+    @FunctionalInterface
+    public interface EvictionListener {
+        /**
+         * @param idle whether the session was let go of for being idle, rather than to fit the memory budget
+         */
+        void evicted(String sessionId, BlackoutController controller, boolean idle);
+    }
+
+    private static final class Session {
+        private final String id;
+        private final BlackoutController controller;
+        // when the session was last used, or EVICTED once it has been let go of
+        private final AtomicLong lastUsed = new AtomicLong();
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        // only used by the sweep
+        private long sweptLastUsed;
+        private long footprint;
+
+        Session(String id, BlackoutController controller) {
+            this.id = id;
+            this.controller = controller;
+        }
+
+        /**
+         * @return false, without changing anything, if the session has been let go of
+         */
+        boolean markUsed(long now) {
+            return lastUsed.getAndUpdate(used -> used == EVICTED ? used : now) != EVICTED;
+        }
+
+        /**
+         * Waits until the registry no longer has the session and the eviction listener is done with it.
+         */
+        void awaitRelease() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    released.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
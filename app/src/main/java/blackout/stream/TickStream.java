@@ -0,0 +1,224 @@
+package unsw.blackout.stream;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import unsw.blackout.BlackoutController;
+import unsw.blackout.ChangeTracker;
+import unsw.response.models.EntityInfoResponse;
+import unsw.response.models.SimulationDeltaResponse;
+
+/**
+ * Sends each tick's changes to a controller's world to any number of subscribers as server-sent events. A new
+ * subscriber gets a keyframe event holding the whole world, then a delta event for each tick after it, as
+ * SimulationDeltaResponse JSON. Changes made between ticks go out with the next tick.
+ *
+ * Each tick's changes are worked out and turned into JSON once, however many subscribers there are, and nothing is
+ * tracked while there are none. Every subscriber has its own bounded buffer, so a slow one never holds up the
+ * simulation. A subscriber that falls too far behind has everything it hasn't read yet replaced with one keyframe
+ * of the world as it is now, which it can catch up from in one go.
+ *
+ * Apart from Subscriber, everything here has to be called holding the controller's monitor.
+ */
+public final class TickStream {
+    private final BlackoutController controller;
+    private final Function<Object, String> toJson;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private ChangeTracker tracker;
+    private int maxEvents = 256;
+    private int maxChars = 16 << 20;
+
+    /**
+     * @param toJson turns the events' payloads into single lines of JSON
+     */
+    public TickStream(BlackoutController controller, Function<Object, String> toJson) {
+        this.controller = controller;
+        this.toJson = toJson;
+    }
+
+    /**
+     * Sets how far new subscribers may fall behind before what they haven't read is replaced with a keyframe.
+     *
+     * @param maxEvents the most events buffered for a subscriber
+     * @param maxChars  the most characters buffered for a subscriber, although a keyframe is kept however long
+     */
+    public void setBufferLimits(int maxEvents, int maxChars) {
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxChars = Math.max(1, maxChars);
+    }
+
+    /**
+     * @return a new subscriber, whose first event is a keyframe of the world as it is now
+     */
+    public Subscriber subscribe() {
+        if (tracker != null) {
+            // brings the tracker up to now, so the keyframe is what the next changes apply to
+            publish(false);
+        }
+
+        String keyframe;
+        if (tracker == null) {
+            tracker = controller.trackChanges();
+            keyframe = event("keyframe", tracker.keyframe());
+        } else {
+            keyframe = event("keyframe", snapshot());
+        }
+        Subscriber subscriber = new Subscriber(maxEvents, maxChars);
+        subscriber.reset(keyframe);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Sends everything that changed since the last call to every subscriber. Called after every tick.
+     */
+    public void publish() {
+        publish(true);
+    }
+
+    /**
+     * @param tick whether to send the changes even if there aren't any, to mark a tick
+     */
+    private void publish(boolean tick) {
+        subscribers.removeIf(Subscriber::isClosed);
+        if (subscribers.isEmpty()) {
+            tracker = null;
+            return;
+        }
+
+        SimulationDeltaResponse changes = tracker.changes();
+        if (!tick && changes.getAdded() == null && changes.getRemoved() == null && changes.getChanged() == null) {
+            return;
+        }
+        String delta = event("delta", changes);
+        String keyframe = null;
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.offer(delta)) {
+                if (keyframe == null) {
+                    keyframe = event("keyframe", snapshot());
+                }
+                subscriber.catchUp(keyframe);
+            }
+        }
+    }
+
+    /**
+     * Ends every subscription, once the controller is going away.
+     */
+    public void close() {
+        subscribers.forEach(Subscriber::close);
+        subscribers.clear();
+        tracker = null;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private Map<String, EntityInfoResponse> snapshot() {
+        Map<String, EntityInfoResponse> world = new HashMap<>();
+        controller.listSatelliteIds().forEach(id -> world.put(id, controller.getInfo(id)));
+        controller.listDeviceIds().forEach(id -> world.put(id, controller.getInfo(id)));
+        return world;
+    }
+
+    private String event(String name, Object payload) {
+        return "event: " + name + "\ndata: " + toJson.apply(payload) + "\n\n";
+    }
+
+    /**
+     * One subscriber's buffer of events waiting to be sent, filled while holding the controller's monitor and
+     * drained by whichever thread is sending them.
+     */
+    public static final class Subscriber {
+        private final int maxEvents;
+        private final int maxChars;
+        private final ArrayDeque<String> events = new ArrayDeque<>();
+        private long bufferedChars;
+        private long resets;
+        private boolean closed;
+
+        private Subscriber(int maxEvents, int maxChars) {
+            this.maxEvents = maxEvents;
+            this.maxChars = maxChars;
+        }
+
+        /**
+         * Waits for the next event.
+         *
+         * @param timeoutMillis how long to wait before giving up
+         * @return the event, ready to be written out, or null if none came in time or the subscription is closed
+         */
+        public synchronized String take(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (events.isEmpty() && !closed) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return null;
+                }
+                wait(wait);
+            }
+
+            String event = events.poll();
+            if (event != null) {
+                bufferedChars -= event.length();
+            }
+            return event;
+        }
+
+        /**
+         * Ends the subscription, such as when the client has gone. Nothing more is buffered for it afterwards.
+         */
+        public synchronized void close() {
+            closed = true;
+            events.clear();
+            bufferedChars = 0;
+            notifyAll();
+        }
+
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * @return how many times the subscriber fell too far behind and was sent a keyframe instead
+         */
+        public synchronized long getResets() {
+            return resets;
+        }
+
+        /**
+         * @return false, without buffering the event, if the buffer has no room for it
+         */
+        private synchronized boolean offer(String event) {
+            if (closed) {
+                return true;
+            } else if (events.size() >= maxEvents || bufferedChars + event.length() > maxChars) {
+                return false;
+            }
+            events.add(event);
+            bufferedChars += event.length();
+            notifyAll();
+            return true;
+        }
+
+        private synchronized void catchUp(String keyframe) {
+            resets++;
+            reset(keyframe);
+        }
+
+        private synchronized void reset(String keyframe) {
+            if (closed) {
+                return;
+            }
+            events.clear();
+            events.add(keyframe);
+            bufferedChars = keyframe.length();
+            notifyAll();
+        }
+    }
+}
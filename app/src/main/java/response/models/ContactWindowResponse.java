@@ -0,0 +1,68 @@
+package unsw.response.models;
+
+import java.util.Objects;
+
+/**
+ * Represents a stretch of ticks during which an entity is directly in contact
+ * with one of its peers.
+ *
+ * Ticks are counted from the current state, so tick 0 is now and tick 1 is
+ * after the next call to simulate. Both ends of the window are inclusive.
+ */
+public final class ContactWindowResponse {
+    /**
+     * The id of the entity on the other end of the link.
+     */
+    private final String peerId;
+
+    /**
+     * The first tick the two are in contact.
+     */
+    private final long startTick;
+
+    /**
+     * The last tick the two are in contact.
+     */
+    private final long endTick;
+
+    public ContactWindowResponse(String peerId, long startTick, long endTick) {
+        this.peerId = peerId;
+        this.startTick = startTick;
+        this.endTick = endTick;
+    }
+
+    public final String getPeerId() {
+        return peerId;
+    }
+
+    public final long getStartTick() {
+        return startTick;
+    }
+
+    public final long getEndTick() {
+        return endTick;
+    }
+
+    @Override
+    public String toString() {
+        return "ContactWindowResponse [peerId=" + peerId + ", startTick=" + startTick + ", endTick=" + endTick + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(peerId, startTick, endTick);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        ContactWindowResponse other = (ContactWindowResponse) obj;
+        return Objects.equals(peerId, other.peerId) && startTick == other.startTick && endTick == other.endTick;
+    }
+}
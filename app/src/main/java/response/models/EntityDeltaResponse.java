@@ -0,0 +1,78 @@
+package unsw.response.models;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import unsw.utils.Angle;
+
+/**
+ * Represents how an entity changed over one tick. Anything that didn't
+ * change is null, so it is left out of the JSON.
+ */
+public final class EntityDeltaResponse {
+    // We store it in positionRadians, to avoid weird JSON outputs.
+    private final Angle position;
+    private final Double height;
+
+    /**
+     * The files that are new or changed, by filename.
+     */
+    private final Map<String, FileDeltaResponse> files;
+
+    /**
+     * The filenames of the files that are gone.
+     */
+    private final List<String> removedFiles;
+
+    public EntityDeltaResponse(Angle position, Double height, Map<String, FileDeltaResponse> files,
+            List<String> removedFiles) {
+        this.position = position;
+        this.height = height;
+        this.files = files;
+        this.removedFiles = removedFiles;
+    }
+
+    public final Angle getPosition() {
+        return position;
+    }
+
+    public final Double getHeight() {
+        return height;
+    }
+
+    public final Map<String, FileDeltaResponse> getFiles() {
+        return files;
+    }
+
+    public final List<String> getRemovedFiles() {
+        return removedFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityDeltaResponse [positionRadians=" + (position == null ? null : position.toRadians())
+                + ", height=" + height + ", files=" + files + ", removedFiles=" + removedFiles + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(position == null ? null : position.toRadians(), height, files, removedFiles);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        EntityDeltaResponse other = (EntityDeltaResponse) obj;
+        return Objects.equals(position == null ? null : position.toRadians(),
+                other.position == null ? null : other.position.toRadians())
+                && Objects.equals(height, other.height) && Objects.equals(files, other.files)
+                && Objects.equals(removedFiles, other.removedFiles);
+    }
+}
@@ -0,0 +1,78 @@
+package unsw.response.models;
+
+import java.util.Objects;
+
+/**
+ * Represents how a file changed over one tick. A file that is new, or whose
+ * data was rewritten rather than added to, comes with all of its data.
+ * Otherwise only the data that arrived during the tick is given.
+ */
+public final class FileDeltaResponse {
+    /**
+     * All of the file's data, or null if the data only grew.
+     */
+    private final String data;
+
+    /**
+     * The data that arrived during the tick, or null if all of the data is given.
+     */
+    private final String appendedData;
+
+    /**
+     * The final size for the file.
+     */
+    private final int fileSize;
+
+    /**
+     * Has transfer for this file been completed yet?
+     */
+    private final boolean isFileComplete;
+
+    public FileDeltaResponse(String data, String appendedData, int fileSize, boolean isFileComplete) {
+        this.data = data;
+        this.appendedData = appendedData;
+        this.fileSize = fileSize;
+        this.isFileComplete = isFileComplete;
+    }
+
+    public final String getData() {
+        return data;
+    }
+
+    public final String getAppendedData() {
+        return appendedData;
+    }
+
+    public final int getFileSize() {
+        return fileSize;
+    }
+
+    public final boolean isFileComplete() {
+        return isFileComplete;
+    }
+
+    @Override
+    public String toString() {
+        return "FileDeltaResponse [data=" + data + ", appendedData=" + appendedData + ", fileSize=" + fileSize
+                + ", isFileComplete=" + isFileComplete + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(data, appendedData, fileSize, isFileComplete);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        FileDeltaResponse other = (FileDeltaResponse) obj;
+        return Objects.equals(data, other.data) && Objects.equals(appendedData, other.appendedData)
+                && fileSize == other.fileSize && isFileComplete == other.isFileComplete;
+    }
+}
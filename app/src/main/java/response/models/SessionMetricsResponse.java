@@ -0,0 +1,99 @@
+package unsw.response.models;
+
+import java.util.Objects;
+
+/**
+ * Represents the counters of the server's session registry.
+ */
+public final class SessionMetricsResponse {
+    /**
+     * The number of sessions in memory.
+     */
+    private final int sessions;
+
+    /**
+     * The number of lookups that found their session.
+     */
+    private final long hits;
+
+    /**
+     * The number of lookups that had to make their session.
+     */
+    private final long misses;
+
+    /**
+     * The number of sessions let go of for being idle too long.
+     */
+    private final long idleEvictions;
+
+    /**
+     * The number of sessions let go of to keep within the memory budget.
+     */
+    private final long budgetEvictions;
+
+    /**
+     * Roughly how many bytes the sessions took up as of the last sweep.
+     */
+    private final long footprintBytes;
+
+    public SessionMetricsResponse(int sessions, long hits, long misses, long idleEvictions, long budgetEvictions,
+            long footprintBytes) {
+        this.sessions = sessions;
+        this.hits = hits;
+        this.misses = misses;
+        this.idleEvictions = idleEvictions;
+        this.budgetEvictions = budgetEvictions;
+        this.footprintBytes = footprintBytes;
+    }
+
+    public final int getSessions() {
+        return sessions;
+    }
+
+    public final long getHits() {
+        return hits;
+    }
+
+    public final long getMisses() {
+        return misses;
+    }
+
+    public final long getIdleEvictions() {
+        return idleEvictions;
+    }
+
+    public final long getBudgetEvictions() {
+        return budgetEvictions;
+    }
+
+    public final long getFootprintBytes() {
+        return footprintBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionMetricsResponse [sessions=" + sessions + ", hits=" + hits + ", misses=" + misses
+                + ", idleEvictions=" + idleEvictions + ", budgetEvictions=" + budgetEvictions + ", footprintBytes="
+                + footprintBytes + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sessions, hits, misses, idleEvictions, budgetEvictions, footprintBytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        SessionMetricsResponse other = (SessionMetricsResponse) obj;
+        return sessions == other.sessions && hits == other.hits && misses == other.misses
+                && idleEvictions == other.idleEvictions && budgetEvictions == other.budgetEvictions
+                && footprintBytes == other.footprintBytes;
+    }
+}
@@ -0,0 +1,70 @@
+package unsw.response.models;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Represents how the world changed over one tick, to be applied to the state
+ * before it. Entities that didn't change are left out, as is any part that is
+ * empty.
+ */
+public final class SimulationDeltaResponse {
+    /**
+     * The entities that are new, in full, by id.
+     */
+    private final Map<String, EntityInfoResponse> added;
+
+    /**
+     * The ids of the entities that are gone.
+     */
+    private final List<String> removed;
+
+    /**
+     * The entities that changed, by id.
+     */
+    private final Map<String, EntityDeltaResponse> changed;
+
+    public SimulationDeltaResponse(Map<String, EntityInfoResponse> added, List<String> removed,
+            Map<String, EntityDeltaResponse> changed) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    public final Map<String, EntityInfoResponse> getAdded() {
+        return added;
+    }
+
+    public final List<String> getRemoved() {
+        return removed;
+    }
+
+    public final Map<String, EntityDeltaResponse> getChanged() {
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationDeltaResponse [added=" + added + ", removed=" + removed + ", changed=" + changed + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(added, removed, changed);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+
+        SimulationDeltaResponse other = (SimulationDeltaResponse) obj;
+        return Objects.equals(added, other.added) && Objects.equals(removed, other.removed)
+                && Objects.equals(changed, other.changed);
+    }
+}
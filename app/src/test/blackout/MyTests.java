@@ -3,12 +3,32 @@ package blackout;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
 
 import unsw.blackout.BlackoutController;
+import unsw.blackout.ChangeTracker;
+import unsw.blackout.EntityKind;
 import unsw.blackout.FileTransferException;
+import unsw.blackout.Slope;
+import unsw.blackout.SlopeIndex;
+import unsw.blackout.batch.BatchRunner;
+import unsw.blackout.batch.ScenarioGenerator;
+import unsw.blackout.content.ContentStore;
+import unsw.blackout.content.HeapContent;
+import unsw.blackout.content.MappedContentStore;
+import unsw.blackout.journal.CommandJournal;
+import unsw.blackout.session.SessionIds;
+import unsw.blackout.session.SessionRegistry;
+import unsw.blackout.stream.TickStream;
+import unsw.response.models.ContactWindowResponse;
+import unsw.response.models.EntityInfoResponse;
 import unsw.response.models.FileInfoResponse;
+import unsw.response.models.SessionMetricsResponse;
+import unsw.response.models.SimulationDeltaResponse;
 import unsw.utils.Angle;
 
+import com.google.gson.Gson;
+
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -16,8 +36,27 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static unsw.utils.MathsHelper.RADIUS_OF_JUPITER;
 import static blackout.TestHelpers.assertListAreEqualIgnoringOrder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @TestInstance(value = Lifecycle.PER_CLASS)
 public class MyTests {
@@ -389,4 +428,1195 @@ public class MyTests {
                 assertEquals(controller.getInfo("TpSatellite").getFiles().get("1"),
                                 new FileInfoResponse("1", "H", msg.length(), false));
         }
+
+        @Test
+        public void testLinksRefreshWhenWorldChanges() {
+                /*
+                 * Links are cached for the tick, but creating or removing entities between ticks must be seen
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Satellite", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(0));
+                assertEquals(Collections.emptyList(), controller.communicableEntitiesInRange("Satellite"));
+
+                controller.createDevice("Device", "LaptopDevice", Angle.fromDegrees(10));
+                assertEquals(Arrays.asList("Device"), controller.communicableEntitiesInRange("Satellite"));
+                assertEquals(Arrays.asList("Satellite"), controller.communicableEntitiesInRange("Device"));
+
+                controller.removeDevice("Device");
+                assertEquals(Collections.emptyList(), controller.communicableEntitiesInRange("Satellite"));
+                assertEquals(null, controller.communicableEntitiesInRange("Device"));
+        }
+
+        @Test
+        public void testRangeAcrossZeroDegrees() {
+                /*
+                 * Entities either side of 0 degrees are next to each other, not on opposite sides of Jupiter
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Satellite", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(359.5));
+                controller.createSatellite("Far", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(180));
+                controller.createDevice("Device", "HandheldDevice", Angle.fromDegrees(0.5));
+
+                assertEquals(Arrays.asList("Device"), controller.communicableEntitiesInRange("Satellite"));
+                assertEquals(Arrays.asList("Satellite"), controller.communicableEntitiesInRange("Device"));
+                assertEquals(Collections.emptyList(), controller.communicableEntitiesInRange("Far"));
+        }
+
+        @Test
+        public void testRelayChains() {
+                /*
+                 * Two relays in range of each other pass links along the chain without looping forever,
+                 * and the hop limit cuts the chain short
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Relay1", "RelaySatellite", 5000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(150));
+                controller.createSatellite("Relay2", "RelaySatellite", 5000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(180));
+                controller.createDevice("Sender", "HandheldDevice", Angle.fromDegrees(145));
+                controller.createDevice("Receiver", "HandheldDevice", Angle.fromDegrees(185));
+
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay1", "Relay2", "Receiver"),
+                                controller.communicableEntitiesInRange("Sender"));
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay2", "Sender", "Receiver"),
+                                controller.communicableEntitiesInRange("Relay1"));
+
+                controller.setMaxRelayHops(1);
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay1", "Relay2"),
+                                controller.communicableEntitiesInRange("Sender"));
+
+                controller.setMaxRelayHops(0);
+                assertEquals(Arrays.asList("Relay1"), controller.communicableEntitiesInRange("Sender"));
+        }
+
+        @Test
+        public void testParallelMovementMatchesSequential() {
+                /*
+                 * Moving entities on a pool must land every entity in exactly the same place
+                 */
+                BlackoutController sequential = new BlackoutController();
+                BlackoutController parallel = new BlackoutController();
+                parallel.setParallelMovement(new ForkJoinPool(4), 0);
+
+                String[] types = {"StandardSatellite", "TeleportingSatellite", "RelaySatellite"};
+                for (BlackoutController controller : Arrays.asList(sequential, parallel)) {
+                        controller.createSlope(0, 90, 5);
+                        for (int i = 0; i < 60; i++) {
+                                controller.createSatellite("Satellite" + i, types[i % 3], 1000 * i + RADIUS_OF_JUPITER,
+                                                Angle.fromDegrees(i * 6));
+                                controller.createDevice("Device" + i, "HandheldDevice", Angle.fromDegrees(i * 6),
+                                                i % 2 == 0);
+                        }
+                        controller.simulate(500);
+                }
+
+                for (String id : sequential.listSatelliteIds()) {
+                        assertEquals(sequential.getInfo(id).getPosition(), parallel.getInfo(id).getPosition());
+                }
+                for (String id : sequential.listDeviceIds()) {
+                        assertEquals(sequential.getInfo(id).getPosition(), parallel.getInfo(id).getPosition());
+                        assertEquals(sequential.getInfo(id).getHeight(), parallel.getInfo(id).getHeight());
+                }
+        }
+
+        @Test
+        public void testParallelTransfersMatchSequential() {
+                /*
+                 * Running transfers partitioned by receiver must give the same files as running them in order,
+                 * including transfers that get cut off when a teleporting satellite jumps
+                 */
+                BlackoutController sequential = new BlackoutController();
+                BlackoutController parallel = new BlackoutController();
+                parallel.setParallelTransfers(new ForkJoinPool(4), 0);
+
+                for (BlackoutController controller : Arrays.asList(sequential, parallel)) {
+                        for (int i = 0; i < 6; i++) {
+                                controller.createSatellite("Satellite" + i, "TeleportingSatellite",
+                                                10000 + RADIUS_OF_JUPITER, Angle.fromDegrees(170 + i * 2));
+                        }
+                        for (int i = 0; i < 24; i++) {
+                                String deviceId = "Device" + i;
+                                controller.createDevice(deviceId, "LaptopDevice", Angle.fromDegrees(168 + i));
+                                controller.addFileToDevice(deviceId, "File" + i, "the quick brown fox jumps over the "
+                                                + "lazy dog that tried to teleport " + i);
+                                try {
+                                        controller.sendFile("File" + i, deviceId, "Satellite" + (i % 6));
+                                } catch (FileTransferException e) {
+                                        continue;
+                                }
+                        }
+                        controller.simulate(20);
+                }
+
+                for (String id : sequential.listSatelliteIds()) {
+                        assertEquals(sequential.getInfo(id), parallel.getInfo(id));
+                }
+                for (String id : sequential.listDeviceIds()) {
+                        assertEquals(sequential.getInfo(id), parallel.getInfo(id));
+                }
+        }
+
+        @Test
+        public void testOrbitsAfterLongFastForward() {
+                /*
+                 * Working out positions straight from the tick number must land every satellite in the same place
+                 * as looking at them every tick along the way
+                 */
+                BlackoutController fastForward = new BlackoutController();
+                BlackoutController everyTick = new BlackoutController();
+
+                for (BlackoutController controller : Arrays.asList(fastForward, everyTick)) {
+                        controller.createSatellite("Standard", "StandardSatellite", 20000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(10));
+                        controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(170));
+                        controller.createSatellite("Relay", "RelaySatellite", 5000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(300));
+                }
+
+                // 170 degrees plus 14 steps of 0.717 degrees reaches 180 and teleports
+                fastForward.simulate(14);
+                assertEquals(0, fastForward.getInfo("Teleporting").getPosition().toDegrees() % 360);
+                fastForward.simulate(100000 - 14);
+
+                for (int i = 0; i < 100000; i++) {
+                        everyTick.simulate();
+                        everyTick.listSatelliteIds().forEach(id -> everyTick.getInfo(id));
+                }
+
+                for (String id : fastForward.listSatelliteIds()) {
+                        assertEquals(everyTick.getInfo(id), fastForward.getInfo(id));
+                }
+                double relayDegrees = fastForward.getInfo("Relay").getPosition().toDegrees();
+                assertTrue(relayDegrees >= 139 && relayDegrees < 192);
+        }
+
+        @Test
+        public void testEventDrivenMatchesTickByTick() {
+                /*
+                 * Skipping from event to event must leave every file and satellite exactly where stepping one
+                 * tick at a time does, including transfers cut off by teleports
+                 */
+                BlackoutController tickByTick = new BlackoutController();
+                BlackoutController eventDriven = new BlackoutController();
+                tickByTick.setEventDriven(false);
+
+                for (BlackoutController controller : Arrays.asList(tickByTick, eventDriven)) {
+                        controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(175));
+                        controller.createSatellite("Standard", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(150));
+                        for (int i = 0; i < 4; i++) {
+                                String deviceId = "Device" + i;
+                                controller.createDevice(deviceId, "LaptopDevice", Angle.fromDegrees(160 + i * 5));
+                                controller.addFileToDevice(deviceId, "File" + i, "short file " + i);
+                        }
+                        controller.addFileToDevice("Device0", "File0", "the teleporting satellite takes this file "
+                                        + "bit by bit, fifteen bytes a tick, but it teleports to the other side "
+                                        + "of Jupiter long before the transfer has time to finish");
+                        assertDoesNotThrow(() -> controller.sendFile("File0", "Device0", "Teleporting"));
+                        assertDoesNotThrow(() -> controller.sendFile("File1", "Device1", "Teleporting"));
+                        assertDoesNotThrow(() -> controller.sendFile("File2", "Device2", "Standard"));
+                }
+
+                for (int minutes : new int[] {3, 7, 40, 4320}) {
+                        tickByTick.simulate(minutes);
+                        eventDriven.simulate(minutes);
+                        for (String id : tickByTick.listSatelliteIds()) {
+                                assertEquals(tickByTick.getInfo(id), eventDriven.getInfo(id));
+                        }
+                        for (String id : tickByTick.listDeviceIds()) {
+                                assertEquals(tickByTick.getInfo(id), eventDriven.getInfo(id));
+                        }
+                }
+        }
+
+        @Test
+        public void testEventDrivenMatchesTickByTickWithMovingDevices() {
+                /*
+                 * Transfers between satellites, and devices moving along slopes away from any transfer, are skipped
+                 * through as well, and still end up exactly where stepping one tick at a time leaves them
+                 */
+                BlackoutController tickByTick = new BlackoutController();
+                BlackoutController eventDriven = new BlackoutController();
+                tickByTick.setEventDriven(false);
+
+                for (BlackoutController controller : Arrays.asList(tickByTick, eventDriven)) {
+                        controller.createSatellite("Standard", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(100));
+                        controller.createSatellite("Teleporting", "TeleportingSatellite", 12000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(110));
+                        controller.createSatellite("Relay", "RelaySatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(150));
+                        controller.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(105));
+                        controller.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(300), true);
+                        controller.createSlope(250, 320, 5);
+                        controller.addFileToDevice("Laptop", "File", "passed on");
+                        assertDoesNotThrow(() -> controller.sendFile("File", "Laptop", "Standard"));
+                        controller.simulate(12);
+                        assertDoesNotThrow(() -> controller.sendFile("File", "Standard", "Teleporting"));
+                }
+
+                for (int minutes : new int[] {2, 9, 60, 1440}) {
+                        tickByTick.simulate(minutes);
+                        eventDriven.simulate(minutes);
+                        for (String id : tickByTick.listSatelliteIds()) {
+                                assertEquals(tickByTick.getInfo(id), eventDriven.getInfo(id));
+                        }
+                        for (String id : tickByTick.listDeviceIds()) {
+                                assertEquals(tickByTick.getInfo(id), eventDriven.getInfo(id));
+                        }
+                }
+        }
+
+        @Test
+        public void testContactWindowsMatchStepping() {
+                /*
+                 * Predicted contact windows must line up with when communicableEntitiesInRange actually lists the
+                 * satellite, through teleports and bounces
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createSatellite("Standard", "StandardSatellite", 20000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(10));
+                controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(170));
+                controller.createSatellite("Relay", "RelaySatellite", 5000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(300));
+                controller.createDevice("Device", "LaptopDevice", Angle.fromDegrees(160));
+                // windows are for direct contact, so don't let the relay pass other satellites on
+                controller.setMaxRelayHops(0);
+
+                int horizon = 2000;
+                List<ContactWindowResponse> predicted = controller.predictContactWindows("Device", horizon);
+                assertTrue(predicted.size() > 3);
+                assertEquals(controller.predictContactWindows("Device", 0),
+                                controller.predictContactWindows("Device", -5));
+
+                Map<String, Long> open = new HashMap<>();
+                List<ContactWindowResponse> stepped = new ArrayList<>();
+                for (int tick = 0; tick <= horizon; tick++) {
+                        List<String> inRange = controller.communicableEntitiesInRange("Device");
+                        for (String peerId : inRange) {
+                                open.putIfAbsent(peerId, (long) tick);
+                        }
+                        for (String peerId : new ArrayList<>(open.keySet())) {
+                                if (!inRange.contains(peerId)) {
+                                        stepped.add(new ContactWindowResponse(peerId, open.remove(peerId), tick - 1));
+                                }
+                        }
+                        controller.simulate();
+                }
+                open.forEach((peerId, start) -> stepped.add(new ContactWindowResponse(peerId, start, horizon)));
+
+                assertListAreEqualIgnoringOrder(stepped, predicted);
+        }
+
+        @Test
+        public void testBatchRunsAreReproducible() {
+                /*
+                 * The same batch seed must give the same metrics in the same order, however many threads the
+                 * runs are spread over
+                 */
+                ScenarioGenerator generator = (controller, random) -> {
+                        for (int i = 0; i < 5; i++) {
+                                controller.createSatellite("Satellite" + i, "StandardSatellite",
+                                                random.nextInt(50000) + RADIUS_OF_JUPITER,
+                                                Angle.fromDegrees(random.nextInt(360)));
+                                controller.createDevice("Device" + i, "HandheldDevice",
+                                                Angle.fromDegrees(random.nextInt(360)));
+                        }
+                };
+                BatchRunner<Integer> runner = new BatchRunner<>(generator, 100,
+                                controller -> controller.communicableEntitiesInRange("Device0").size());
+
+                List<Integer> sequential = new ArrayList<>();
+                runner.setPool(new ForkJoinPool(1));
+                runner.run(42, 40, sequential::add);
+
+                List<Integer> parallel = new ArrayList<>();
+                runner.setPool(new ForkJoinPool(4));
+                runner.setMaxRunsInMemory(3);
+                runner.run(42, 40, parallel::add);
+
+                assertEquals(40, parallel.size());
+                assertEquals(sequential, parallel);
+        }
+
+        @Test
+        public void testLinksAfterChurnMatchFreshWorld() {
+                /*
+                 * Adding and removing entities between queries must give the same links as building the world
+                 * from scratch, even though most links are carried over from the last query
+                 */
+                BlackoutController controller = new BlackoutController();
+                for (int i = 0; i < 4; i++) {
+                        controller.createSatellite("Satellite" + i, "StandardSatellite", 30000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(i * 90));
+                }
+                for (int i = 0; i < 36; i++) {
+                        controller.createDevice("Device" + i, "HandheldDevice", Angle.fromDegrees(i * 10));
+                }
+                controller.communicableEntitiesInRange("Satellite0");
+
+                controller.removeDevice("Device0");
+                controller.createDevice("Device0", "LaptopDevice", Angle.fromDegrees(5));
+                controller.createSatellite("Satellite4", "StandardSatellite", 30000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(5));
+                controller.removeSatellite("Satellite1");
+
+                BlackoutController fresh = new BlackoutController();
+                for (int i = 0; i < 5; i++) {
+                        if (i != 1) {
+                                fresh.createSatellite("Satellite" + i, "StandardSatellite", 30000 + RADIUS_OF_JUPITER,
+                                                Angle.fromDegrees(i == 4 ? 5 : i * 90));
+                        }
+                }
+                fresh.createDevice("Device0", "LaptopDevice", Angle.fromDegrees(5));
+                for (int i = 1; i < 36; i++) {
+                        fresh.createDevice("Device" + i, "HandheldDevice", Angle.fromDegrees(i * 10));
+                }
+
+                for (String id : fresh.listSatelliteIds()) {
+                        assertListAreEqualIgnoringOrder(fresh.communicableEntitiesInRange(id),
+                                        controller.communicableEntitiesInRange(id));
+                }
+                for (String id : fresh.listDeviceIds()) {
+                        assertListAreEqualIgnoringOrder(fresh.communicableEntitiesInRange(id),
+                                        controller.communicableEntitiesInRange(id));
+                }
+        }
+
+        @Test
+        public void testRemovingDeviceOnlyDropsItsLinks() {
+                /*
+                 * Removing a device mid-transfer drops its link and files but leaves the other links going, and
+                 * a new device with the same id gets a fresh link
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Satellite", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(0));
+                controller.createDevice("Device1", "LaptopDevice", Angle.fromDegrees(10));
+                controller.createDevice("Device2", "LaptopDevice", Angle.fromDegrees(12));
+
+                String content = "abcdefghijklmnopqrstuvwxyzabcdefghijklmn";
+                controller.addFileToDevice("Device1", "1", content);
+                controller.addFileToDevice("Device2", "2", content);
+                assertDoesNotThrow(() -> controller.sendFile("1", "Device1", "Satellite"));
+                assertDoesNotThrow(() -> controller.sendFile("2", "Device2", "Satellite"));
+                controller.simulate();
+
+                controller.removeDevice("Device1");
+                assertEquals(Collections.singleton("2"), controller.getInfo("Satellite").getFiles().keySet());
+                assertEquals(new FileInfoResponse("2", content.substring(0, 15), 40, false),
+                                controller.getInfo("Satellite").getFiles().get("2"));
+
+                controller.createDevice("Device1", "LaptopDevice", Angle.fromDegrees(10));
+                controller.addFileToDevice("Device1", "3", "abc");
+                assertDoesNotThrow(() -> controller.sendFile("3", "Device1", "Satellite"));
+                controller.simulate(2);
+
+                assertEquals(new FileInfoResponse("2", content, 40, true),
+                                controller.getInfo("Satellite").getFiles().get("2"));
+                assertEquals(new FileInfoResponse("3", "abc", 3, true),
+                                controller.getInfo("Satellite").getFiles().get("3"));
+        }
+
+        @Test
+        public void testRemovingSatelliteOnlyTouchesItsFiles() {
+                /*
+                 * Removing a satellite drops the partial files it was sending to devices, and devices holding
+                 * files they haven't sent yet are left alone
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Satellite", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(0));
+                controller.createDevice("Sender", "HandheldDevice", Angle.fromDegrees(2));
+                controller.createDevice("Receiver", "HandheldDevice", Angle.fromDegrees(4));
+                controller.createDevice("Bystander", "HandheldDevice", Angle.fromDegrees(6));
+
+                controller.addFileToDevice("Sender", "1", "abc");
+                controller.addFileToDevice("Bystander", "2", "unsent");
+                assertDoesNotThrow(() -> controller.sendFile("1", "Sender", "Satellite"));
+                controller.simulate(3);
+                controller.addFileToDevice("Sender", "3", "abcdefghijklmnopqrstuvwxyz");
+                assertDoesNotThrow(() -> controller.sendFile("1", "Satellite", "Receiver"));
+                controller.simulate();
+
+                assertEquals(new FileInfoResponse("1", "a", 3, false),
+                                controller.getInfo("Receiver").getFiles().get("1"));
+                assertDoesNotThrow(() -> controller.removeSatellite("Satellite"));
+
+                assertEquals(Collections.emptyMap(), controller.getInfo("Receiver").getFiles());
+                assertEquals(new FileInfoResponse("2", "unsent", 6, true),
+                                controller.getInfo("Bystander").getFiles().get("2"));
+                assertEquals(new FileInfoResponse("3", "abcdefghijklmnopqrstuvwxyz", 26, true),
+                                controller.getInfo("Sender").getFiles().get("3"));
+        }
+
+        @Test
+        public void testPartialContentOutlivesSendersFile() throws FileTransferException {
+                /*
+                 * A receiver's partly sent copy shares its sender's content, so it must stay the right prefix of
+                 * what was being sent when the sender's file is replaced, or the sender is removed, mid-transfer
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createSatellite("Sending", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(10));
+                controller.createSatellite("Receiving", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(12));
+                controller.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(10));
+
+                controller.addFileToDevice("Laptop", "Replaced", "original content");
+                controller.sendFile("Replaced", "Laptop", "Sending");
+                controller.simulate(3);
+                controller.addFileToDevice("Laptop", "Replaced", "replacement text");
+                assertEquals(new FileInfoResponse("Replaced", "ori", 16, false),
+                                controller.getInfo("Sending").getFiles().get("Replaced"));
+                controller.simulate(3);
+                assertEquals(new FileInfoResponse("Replaced", "origin", 16, false),
+                                controller.getInfo("Sending").getFiles().get("Replaced"));
+                controller.simulate(10);
+                assertEquals(new FileInfoResponse("Replaced", "original content", 16, true),
+                                controller.getInfo("Sending").getFiles().get("Replaced"));
+
+                controller.sendFile("Replaced", "Sending", "Receiving");
+                controller.simulate(3);
+                controller.removeSatellite("Sending");
+                assertEquals(new FileInfoResponse("Replaced", "ori", 16, false),
+                                controller.getInfo("Receiving").getFiles().get("Replaced"));
+                controller.simulate(3);
+                assertEquals(new FileInfoResponse("Replaced", "ori", 16, false),
+                                controller.getInfo("Receiving").getFiles().get("Replaced"));
+                assertEquals(new FileInfoResponse("Replaced", "replacement text", 16, true),
+                                controller.getInfo("Laptop").getFiles().get("Replaced"));
+        }
+
+        @Test
+        public void testMappedContentStore() {
+                /*
+                 * Files kept in mapped temp files read back the same as files kept on the heap, whole on the
+                 * sender and partly sent on the receiver
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.setContentStore(new MappedContentStore(4));
+
+                controller.createSatellite("Satellite", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(0));
+                controller.createDevice("Device", "LaptopDevice", Angle.fromDegrees(10));
+
+                controller.addFileToDevice("Device", "ascii", "abcdefghijklmnopqrs");
+                controller.addFileToDevice("Device", "greek", "\u03b1\u03b2\u03b3\u03b4\u03b5");
+                controller.addFileToDevice("Device", "short", "abc");
+                assertDoesNotThrow(() -> controller.sendFile("ascii", "Device", "Satellite"));
+                controller.simulate();
+
+                assertEquals("abcdefghijklmnopqrs", controller.getInfo("Device").getFiles().get("ascii").getData());
+                assertEquals(new FileInfoResponse("greek", "\u03b1\u03b2\u03b3\u03b4\u03b5", 5, true),
+                                controller.getInfo("Device").getFiles().get("greek"));
+                assertEquals(new FileInfoResponse("short", "abc", 3, true),
+                                controller.getInfo("Device").getFiles().get("short"));
+                assertEquals(new FileInfoResponse("ascii", "abcdefghijklmno", 19, false),
+                                controller.getInfo("Satellite").getFiles().get("ascii"));
+        }
+
+        @Test
+        public void testStreamedContentReadsBackTheSame() throws IOException {
+                /*
+                 * Content streamed into a mapped store a buffer at a time reads back the same as content added as
+                 * a string, including a character that only fits in UTF-16 turning up long after the start
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.setContentStore(new MappedContentStore(4));
+                controller.createDevice("Device", "LaptopDevice", Angle.fromDegrees(10));
+
+                String latin1 = "caf\u00e9 ".repeat(40000);
+                String wide = latin1 + "\u03b1" + latin1;
+                Map<String, String> contents = new HashMap<>();
+                contents.put("latin1", latin1);
+                contents.put("wide", wide);
+                contents.put("short", "abc");
+                contents.put("empty", "");
+                for (Map.Entry<String, String> content : contents.entrySet()) {
+                        controller.addFileToDevice("Device", content.getKey(), new StringReader(content.getValue()));
+                }
+                for (Map.Entry<String, String> content : contents.entrySet()) {
+                        assertEquals(new FileInfoResponse(content.getKey(), content.getValue(),
+                                        content.getValue().length(), true),
+                                        controller.getInfo("Device").getFiles().get(content.getKey()));
+                }
+        }
+
+        @Test
+        public void testStorageCountersStayConsistent() {
+                /*
+                 * The satellites' running storage totals must match their files through sends, completions,
+                 * satellite to satellite hops, teleport aborts and removals
+                 */
+                BlackoutController controller = new BlackoutController();
+
+                controller.createSatellite("Standard", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(5));
+                controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(175));
+                controller.createDevice("Device1", "HandheldDevice", Angle.fromDegrees(0));
+                controller.createDevice("Device2", "LaptopDevice", Angle.fromDegrees(175));
+                controller.createDevice("Device3", "HandheldDevice", Angle.fromDegrees(10));
+
+                controller.addFileToDevice("Device1", "1", "abc");
+                controller.addFileToDevice("Device1", "2", "abcdef");
+                controller.addFileToDevice("Device2", "3", "this file takes a while to send");
+                assertDoesNotThrow(() -> controller.sendFile("1", "Device1", "Standard"));
+                assertDoesNotThrow(() -> controller.sendFile("3", "Device2", "Teleporting"));
+                controller.verifyStorageCounters();
+
+                for (int i = 0; i < 4; i++) {
+                        controller.simulate();
+                        controller.verifyStorageCounters();
+                }
+                assertDoesNotThrow(() -> controller.sendFile("1", "Standard", "Device3"));
+                for (int i = 0; i < 16; i++) {
+                        controller.simulate();
+                        controller.verifyStorageCounters();
+                }
+                assertEquals(new FileInfoResponse("1", "abc", 3, true),
+                                controller.getInfo("Device3").getFiles().get("1"));
+                assertDoesNotThrow(() -> controller.sendFile("2", "Device1", "Standard"));
+                controller.simulate(3);
+                controller.verifyStorageCounters();
+
+                controller.removeDevice("Device1");
+                controller.verifyStorageCounters();
+                controller.removeDevice("Device2");
+                controller.verifyStorageCounters();
+        }
+
+        @Test
+        public void testEntityKindMasks() {
+                /*
+                 * Devices only link directly to satellites that accept them, satellites always link to each
+                 * other, and standard satellites and desktops never talk even through a relay
+                 */
+                List<String> standard = EntityKind.STANDARD_SATELLITE.getAllowedConnections();
+                assertEquals(Arrays.asList("HandheldDevice", "LaptopDevice", "StandardSatellite",
+                                "TeleportingSatellite", "RelaySatellite"), standard);
+
+                for (EntityKind kind : EntityKind.values()) {
+                        for (EntityKind other : EntityKind.values()) {
+                                assertEquals(kind.canLinkDirectly(other), other.canLinkDirectly(kind));
+                                if (kind.isDevice() && other.isDevice()) {
+                                        assertTrue(!kind.canLinkDirectly(other));
+                                } else if (!kind.isDevice() && other.isDevice()) {
+                                        assertEquals(kind.getAllowedConnections().contains(other.getTypeName()),
+                                                        kind.canLinkDirectly(other));
+                                } else if (!kind.isDevice()) {
+                                        assertTrue(kind.canLinkDirectly(other));
+                                }
+                        }
+                }
+
+                BlackoutController controller = new BlackoutController();
+                controller.createSatellite("Relay", "RelaySatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(150));
+                controller.createSatellite("Standard", "StandardSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(160));
+                controller.createDevice("Desktop", "DesktopDevice", Angle.fromDegrees(150));
+                controller.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(150));
+
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay", "Handheld"),
+                                controller.communicableEntitiesInRange("Standard"));
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay", "Handheld"),
+                                controller.communicableEntitiesInRange("Desktop"));
+                assertListAreEqualIgnoringOrder(Arrays.asList("Relay", "Standard", "Desktop"),
+                                controller.communicableEntitiesInRange("Handheld"));
+        }
+
+        @Test
+        public void testMovingDeviceWrapsAround() {
+                /*
+                 * A moving device steps clockwise by its linear velocity over its height each tick, wrapping
+                 * back past 360 degrees, and climbs a slope by the gradient
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createDevice("Device", "HandheldDevice", Angle.fromDegrees(0.01), true);
+                controller.createDevice("Climber", "HandheldDevice", Angle.fromDegrees(200), true);
+                controller.createSlope(190, 210, 100);
+
+                double step = 50.0 / RADIUS_OF_JUPITER;
+                controller.simulate();
+                assertEquals(Angle.fromDegrees(0.01).toRadians() - step + Math.toRadians(360),
+                                controller.getInfo("Device").getPosition().toRadians(), 1e-12);
+                assertEquals(RADIUS_OF_JUPITER, controller.getInfo("Device").getHeight(), 1e-9);
+
+                assertEquals(Angle.fromDegrees(200).toRadians() - 50.0 / (RADIUS_OF_JUPITER + 1000),
+                                controller.getInfo("Climber").getPosition().toRadians(), 1e-12);
+                assertEquals(RADIUS_OF_JUPITER + 1000, controller.getInfo("Climber").getHeight(), 1e-6);
+
+                controller.simulate(100);
+                double degrees = controller.getInfo("Device").getPosition().toDegrees();
+                assertTrue(degrees > 350 && degrees < 360);
+        }
+
+        @Test
+        public void testSlopesWrapPast360() {
+                /*
+                 * A slope ending before it starts covers 0 degrees, with the height measured from its start,
+                 * and where slopes overlap the first one created wins
+                 */
+                SlopeIndex slopes = new SlopeIndex();
+                slopes.add(new Slope(350, 10, 2));
+                slopes.add(new Slope(0, 20, -1));
+                slopes.add(new Slope(100, 200, 3));
+
+                assertEquals(10.0, slopes.heightAt(355), 1e-9);
+                assertEquals(30.0, slopes.heightAt(5), 1e-9);
+                assertEquals(30.5, slopes.heightAt(5.25), 1e-9);
+                assertEquals(5.0, slopes.heightAt(15), 1e-9);
+                assertEquals(0.0, slopes.heightAt(100.0 + 1e-9), 1e-6);
+                assertEquals(297.0, slopes.heightAt(199), 1e-9);
+                assertTrue(Double.isNaN(slopes.heightAt(350)));
+                assertTrue(Double.isNaN(slopes.heightAt(200)));
+                assertTrue(Double.isNaN(slopes.heightAt(250.5)));
+
+                // slopes that end past 360 degrees or start below 0 aren't wrapped, as before wrapping was added
+                SlopeIndex outOfRange = new SlopeIndex();
+                outOfRange.add(new Slope(350, 370, 1));
+                outOfRange.add(new Slope(-10, 10, 2));
+                assertEquals(5.0, outOfRange.heightAt(355), 1e-9);
+                assertEquals(30.0, outOfRange.heightAt(5), 1e-9);
+                assertEquals(19.0, outOfRange.heightAt(-0.5), 1e-9);
+                assertTrue(Double.isNaN(outOfRange.heightAt(20)));
+                assertTrue(Double.isNaN(outOfRange.heightAt(345)));
+        }
+
+        @Test
+        public void testRestoredCheckpointCarriesOn() throws IOException {
+                /*
+                 * A world restored from a checkpoint taken mid-transfer, part way through a teleport cycle and a
+                 * relay bounce, must carry on exactly as the original, and a stream that isn't a checkpoint must
+                 * leave the world untouched
+                 */
+                BlackoutController original = new BlackoutController();
+                original.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(170));
+                original.createSatellite("Relay", "RelaySatellite", 12000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(200));
+                original.createSatellite("Standard", "StandardSatellite", 15000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(165));
+                original.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(172));
+                original.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(168), true);
+                original.createSlope(160, 180, 5);
+                original.addFileToDevice("Laptop", "long", "the teleporting satellite takes this file bit by bit "
+                                + "and teleports before it is done");
+                original.addFileToDevice("Handheld", "short", "\u03b1\u03b2 and some text");
+                assertDoesNotThrow(() -> original.sendFile("long", "Laptop", "Teleporting"));
+                assertDoesNotThrow(() -> original.sendFile("short", "Handheld", "Standard"));
+                original.simulate(3);
+
+                ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+                original.checkpoint(checkpoint);
+                BlackoutController restored = new BlackoutController();
+                restored.restore(new ByteArrayInputStream(checkpoint.toByteArray()));
+
+                for (int minutes : new int[] {0, 1, 5, 40, 400}) {
+                        original.simulate(minutes);
+                        restored.simulate(minutes);
+                        for (String id : original.listSatelliteIds()) {
+                                assertEquals(original.getInfo(id), restored.getInfo(id));
+                                assertListAreEqualIgnoringOrder(original.communicableEntitiesInRange(id),
+                                                restored.communicableEntitiesInRange(id));
+                        }
+                        for (String id : original.listDeviceIds()) {
+                                assertEquals(original.getInfo(id), restored.getInfo(id));
+                        }
+                }
+                assertListAreEqualIgnoringOrder(original.listDeviceIds(), restored.listDeviceIds());
+
+                assertThrows(IOException.class, () -> restored.restore(new ByteArrayInputStream(new byte[] {1, 2})));
+                assertEquals(original.getInfo("Laptop"), restored.getInfo("Laptop"));
+        }
+
+        @Test
+        public void testCorruptCheckpointLengthsThrowIOException() throws IOException {
+                /*
+                 * A corrupt checkpoint with a text length far past its end, or a count too big to have been
+                 * written, throws an IOException rather than running out of memory
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(10));
+                // the magic number, version, clock and no slopes, then one satellite named by a new string
+                byte[] start = {0x42, 0x4c, 0x4b, 0x54, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1};
+                byte[][] lengths = {{-1, -1, -1, -1, 0x07, 0, 'x'}, {-1, -1, -1, -1, 0x07, 1, 'x'},
+                                {-1, -1, -1, -1, 0x0f, 0, 'x'}};
+                for (byte[] length : lengths) {
+                        ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+                        corrupt.write(start);
+                        corrupt.write(length);
+                        assertThrows(IOException.class,
+                                        () -> controller.restore(new ByteArrayInputStream(corrupt.toByteArray())));
+                }
+                assertListAreEqualIgnoringOrder(Arrays.asList("Laptop"), controller.listDeviceIds());
+        }
+
+        @Test
+        public void testJournalRebuildsSessions(@TempDir Path directory) throws IOException {
+                /*
+                 * Sessions rebuilt from the journal, from checkpoints and the records after them, match the
+                 * sessions that wrote it, and a partly written record at the end of the journal is cut off
+                 */
+                BlackoutController expected = new BlackoutController();
+
+                CommandJournal journal = new CommandJournal(directory);
+                journal.setSegmentBytes(256);
+                journal.setCheckpointInterval(50);
+                for (BlackoutController controller : Arrays.asList(expected, journal.getSession("first"))) {
+                        controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(170));
+                        controller.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(172));
+                        controller.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(150), true);
+                        controller.createSlope(140, 160, 3);
+                        controller.addFileToDevice("Laptop", "File", "sent bit by bit until the satellite teleports");
+                        assertDoesNotThrow(() -> controller.sendFile("File", "Laptop", "Teleporting"));
+                        for (int i = 0; i < 30; i++) {
+                                controller.simulate();
+                        }
+                        controller.simulate(7);
+                        controller.removeDevice("Handheld");
+                }
+                journal.getSession("second").createSatellite("Relay", "RelaySatellite", 12000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(200));
+                journal.close();
+
+                try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "journal-*.log")) {
+                        Path last = null;
+                        for (Path segment : segments) {
+                                last = last == null || segment.compareTo(last) > 0 ? segment : last;
+                        }
+                        Files.write(last, new byte[] {0, 0, 1, 0, 7}, StandardOpenOption.APPEND);
+                }
+
+                CommandJournal reopened = new CommandJournal(directory);
+                // second never got a checkpoint, while first only has calls to replay if the background checkpoint
+                // didn't get to all of them first, and is otherwise read from its checkpoint when asked for
+                assertTrue(reopened.getSessions().containsKey("second"));
+                BlackoutController first = reopened.getSession("first");
+                for (String id : Arrays.asList("Teleporting", "Laptop", "Handheld")) {
+                        assertEquals(expected.getInfo(id), first.getInfo(id));
+                }
+                assertEquals(1, reopened.getSession("second").listSatelliteIds().size());
+
+                first.simulate(100);
+                expected.simulate(100);
+                reopened.close();
+                try (CommandJournal again = new CommandJournal(directory)) {
+                        assertEquals(expected.getInfo("Teleporting"), again.getSession("first").getInfo("Teleporting"));
+                }
+        }
+
+        @Test
+        public void testJournaledRestoreKeepsWorldIfCheckpointFails(@TempDir Path directory) throws IOException {
+                /*
+                 * A restore whose checkpoint can't be written leaves the session as the journal would rebuild it
+                 */
+                BlackoutController other = new BlackoutController();
+                other.createDevice("Other", "DesktopDevice", Angle.fromDegrees(10));
+                ByteArrayOutputStream saved = new ByteArrayOutputStream();
+                other.checkpoint(saved);
+
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        BlackoutController session = journal.getSession("s");
+                        session.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(100));
+                        // a directory where the checkpoint is written first stops it being written
+                        Files.createDirectory(directory.resolve("session-73.ckpt.tmp"));
+                        assertThrows(IOException.class,
+                                        () -> session.restore(new ByteArrayInputStream(saved.toByteArray())));
+                        assertListAreEqualIgnoringOrder(Arrays.asList("Laptop"), session.listDeviceIds());
+                }
+                try (CommandJournal reopened = new CommandJournal(directory)) {
+                        assertListAreEqualIgnoringOrder(Arrays.asList("Laptop"),
+                                        reopened.getSession("s").listDeviceIds());
+                }
+        }
+
+        @Test
+        public void testScenarioImport() throws IOException {
+                /*
+                 * Importing a scenario, as JSON or as CSV, makes the same world as the calls it stands for, and a bad
+                 * record stops the import with everything before it still made
+                 */
+                BlackoutController expected = new BlackoutController();
+                expected.createSatellite("Relay", "RelaySatellite", 80000, Angle.fromRadians(1.5));
+                expected.createDevice("Laptop", "LaptopDevice", Angle.fromRadians(0.25), true);
+                expected.createDevice("Desktop", "DesktopDevice", Angle.fromRadians(3));
+                expected.createSlope(10, 30, 2);
+                expected.addFileToDevice("Laptop", "hello", "Hello, \"World\"\nagain");
+
+                BlackoutController json = new BlackoutController();
+                assertEquals(5, json.importScenario(new StringReader("\n {\"satellites\": [{"
+                                + "\"satelliteId\": \"Relay\", \"type\": \"RelaySatellite\", \"height\": 80000,"
+                                + " \"position\": 1.5}],"
+                                + " \"devices\": [{\"deviceId\": \"Laptop\", \"type\": \"LaptopDevice\","
+                                + " \"position\": 0.25, \"isMoving\": true, \"colour\": \"red\"},"
+                                + " {\"deviceId\": \"Desktop\", \"type\": \"DesktopDevice\", \"position\": 3}],"
+                                + " \"slopes\": [{\"startAngle\": 10, \"endAngle\": 30, \"gradient\": 2}],"
+                                + " \"files\": [{\"deviceId\": \"Laptop\", \"fileName\": \"hello\","
+                                + " \"content\": \"Hello, \\\"World\\\"\\nagain\"}]}")));
+
+                BlackoutController csv = new BlackoutController();
+                assertEquals(5, csv.importScenario(new StringReader("satellite,Relay,RelaySatellite,80000,1.5\r\n"
+                                + "device,Laptop,LaptopDevice,0.25,true\r\n\r\ndevice,Desktop,DesktopDevice,3\n"
+                                + "slope,10,30,2\nfile,Laptop,hello,\"Hello, \"\"World\"\"\nagain\"")));
+
+                expected.simulate(20);
+                for (BlackoutController imported : Arrays.asList(json, csv)) {
+                        imported.simulate(20);
+                        for (String id : Arrays.asList("Relay", "Laptop", "Desktop")) {
+                                assertEquals(expected.getInfo(id), imported.getInfo(id));
+                        }
+                }
+
+                BlackoutController partial = new BlackoutController();
+                IOException bad = assertThrows(IOException.class, () -> partial.importScenario(new StringReader(
+                                "device,Laptop,LaptopDevice,0.25\nslope,10,thirty,2\n"
+                                                + "device,Desktop,DesktopDevice,3\n")));
+                assertTrue(bad.getMessage().startsWith("Bad scenario after 1 records"));
+                assertListAreEqualIgnoringOrder(Arrays.asList("Laptop"), partial.listDeviceIds());
+                assertThrows(IOException.class, () -> partial.importScenario(new StringReader(
+                                "file,Phone,hello,Hello\n")));
+                assertThrows(IOException.class, () -> partial.importScenario(new StringReader(
+                                "{\"devices\": [{\"deviceId\": \"Phone\", \"position\": 1}]}")));
+                bad = assertThrows(IOException.class, () -> partial.importScenario(new StringReader(
+                                "device,Phone,PhoneDevice,1,true\n")));
+                assertTrue(bad.getMessage().contains("unknown device type PhoneDevice"));
+                assertThrows(IOException.class, () -> partial.importScenario(new StringReader(
+                                "satellite,Laptop2,LaptopDevice,80000,1\n")));
+                assertListAreEqualIgnoringOrder(Arrays.asList("Laptop"), partial.listDeviceIds());
+                assertListAreEqualIgnoringOrder(Collections.emptyList(), partial.listSatelliteIds());
+        }
+
+        @Test
+        public void testDeltasRebuildEveryTick() {
+                /*
+                 * Applying each tick's changes to the keyframe gives the same world as asking for it in full, through
+                 * transfers finishing, a teleport rewriting a file, moving devices and entities coming and going
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createSatellite("Teleporting", "TeleportingSatellite", 10000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(178));
+                controller.createSatellite("Standard", "StandardSatellite", 80000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(100));
+                controller.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(178));
+                controller.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(150), true);
+                controller.createDevice("Desktop", "DesktopDevice", Angle.fromDegrees(100));
+                controller.createSlope(140, 160, 3);
+                controller.addFileToDevice("Laptop", "File",
+                                "sent bit by bit until the satellite teleports ".repeat(4));
+                controller.addFileToDevice("Desktop", "Short", "hi");
+                assertDoesNotThrow(() -> controller.sendFile("File", "Laptop", "Teleporting"));
+                assertDoesNotThrow(() -> controller.sendFile("Short", "Desktop", "Standard"));
+
+                ChangeTracker tracker = controller.trackChanges();
+                Map<String, EntityInfoResponse> world = tracker.keyframe();
+                int unchanged = 0;
+                for (int i = 0; i < 60; i++) {
+                        controller.simulate();
+                        if (i == 20) {
+                                controller.removeDevice("Desktop");
+                                controller.createDevice("Phone", "HandheldDevice", Angle.fromDegrees(20));
+                        }
+                        SimulationDeltaResponse delta = tracker.changes();
+                        applyDelta(world, delta);
+                        unchanged += controller.listDeviceIds().size() + controller.listSatelliteIds().size()
+                                        - (delta.getChanged() == null ? 0 : delta.getChanged().size());
+
+                        List<String> ids = new ArrayList<>(controller.listDeviceIds());
+                        ids.addAll(controller.listSatelliteIds());
+                        assertListAreEqualIgnoringOrder(ids, new ArrayList<>(world.keySet()));
+                        for (String id : ids) {
+                                assertEquals(controller.getInfo(id), world.get(id));
+                        }
+                }
+                assertTrue(unchanged > 0);
+        }
+
+        @Test
+        public void testSlowSubscribersCatchUpFromKeyframe() throws InterruptedException {
+                /*
+                 * Every subscriber starts from a keyframe and gets a delta each tick, and one that falls behind has
+                 * its backlog swapped for a single keyframe rather than holding up the ticks or growing without bound
+                 */
+                BlackoutController controller = new BlackoutController();
+                controller.createSatellite("Standard", "StandardSatellite", 80000 + RADIUS_OF_JUPITER,
+                                Angle.fromDegrees(100));
+                controller.createDevice("Handheld", "HandheldDevice", Angle.fromDegrees(150), true);
+
+                TickStream stream = new TickStream(controller, new Gson()::toJson);
+                stream.setBufferLimits(4, 1 << 20);
+                TickStream.Subscriber fast = stream.subscribe();
+                TickStream.Subscriber slow = stream.subscribe();
+                assertTrue(fast.take(0).startsWith("event: keyframe\ndata: {"));
+
+                for (int i = 0; i < 10; i++) {
+                        controller.simulate();
+                        stream.publish();
+                        String event = fast.take(0);
+                        assertTrue(event.startsWith("event: delta\ndata: {") && event.endsWith("}\n\n"));
+                        assertTrue(event.contains("Standard"));
+                }
+                assertEquals(null, fast.take(0));
+
+                List<String> backlog = new ArrayList<>();
+                for (String event = slow.take(0); event != null; event = slow.take(0)) {
+                        backlog.add(event);
+                }
+                assertTrue(backlog.size() <= 4 && backlog.get(0).startsWith("event: keyframe"));
+                assertTrue(slow.getResets() > 0);
+                assertEquals(0, fast.getResets());
+
+                slow.close();
+                controller.simulate();
+                stream.publish();
+                assertEquals(1, stream.getSubscriberCount());
+                assertEquals(null, slow.take(0));
+                assertTrue(fast.take(0).startsWith("event: delta"));
+        }
+
+        @Test
+        public void testOnlySignedSessionIdsAreTaken(@TempDir Path directory) throws IOException {
+                /*
+                 * Session ids signed with a key kept in a file are taken back after reopening it, while made up,
+                 * tampered with or differently signed ids aren't
+                 */
+                Path keyFile = directory.resolve("session.key");
+                SessionIds ids = SessionIds.open(keyFile);
+                String id = ids.newId();
+                String signed = ids.sign(id);
+
+                assertEquals(id, ids.verify(signed));
+                assertEquals(id, SessionIds.open(keyFile).verify(signed));
+                assertEquals(null, ids.verify(null));
+                assertEquals(null, ids.verify(id));
+                assertEquals(null, ids.verify(ids.newId() + signed.substring(id.length())));
+                assertEquals(null, ids.verify(signed.substring(0, signed.length() - 1)));
+                assertEquals(null, new SessionIds().verify(signed));
+        }
+
+        @Test
+        public void testSessionRegistryEvictsIdleThenLeastRecent() {
+                /*
+                 * Sessions are made on first use and found again after, idle ones are let go of first and then the
+                 * least recently used until the rest fit the budget, and the counters keep track of all of it
+                 */
+                long[] now = {0};
+                List<String> evicted = new ArrayList<>();
+                SessionRegistry registry = new SessionRegistry(id -> new BlackoutController(), () -> now[0]);
+                registry.setIdleTimeout(1000);
+                registry.setEvictionListener((id, controller, idle) -> evicted.add(idle ? id : id + " over budget"));
+
+                BlackoutController first = registry.get("first");
+                assertTrue(first == registry.get("first"));
+                for (String id : Arrays.asList("second", "third", "fourth")) {
+                        now[0] += 100;
+                        registry.get(id).createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(10));
+                }
+                registry.get("fourth").addFileToDevice("Laptop", "File", "x".repeat(10000));
+
+                now[0] = 1050;
+                registry.touch("second");
+                registry.touch("missing");
+                registry.sweep();
+                assertEquals(Arrays.asList("first"), evicted);
+                long footprint = registry.getMetrics().getFootprintBytes();
+                assertTrue(footprint > 20000);
+
+                registry.setMemoryBudget(footprint - 1);
+                registry.sweep();
+                assertEquals(Arrays.asList("first", "third over budget"), evicted);
+                assertTrue(registry.getMetrics().getFootprintBytes() < footprint);
+
+                assertTrue(first != registry.get("first"));
+                assertEquals(new SessionMetricsResponse(3, 2, 5, 1, 1, registry.getMetrics().getFootprintBytes()),
+                                registry.getMetrics());
+        }
+
+        @Test
+        public void testSessionRegistryMakesEachSessionOnce() throws InterruptedException, ExecutionException {
+                /*
+                 * A lookup for a session that is still being made waits for it instead of making another, while
+                 * lookups for other sessions carry on
+                 */
+                CountDownLatch making = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+                AtomicInteger made = new AtomicInteger();
+                SessionRegistry registry = new SessionRegistry(id -> {
+                        made.incrementAndGet();
+                        if (id.equals("slow")) {
+                                making.countDown();
+                                try {
+                                        release.await();
+                                } catch (InterruptedException e) {
+                                        throw new IllegalStateException(e);
+                                }
+                        }
+                        return new BlackoutController();
+                });
+
+                CompletableFuture<BlackoutController> first = CompletableFuture
+                                .supplyAsync(() -> registry.get("slow"));
+                making.await();
+                CompletableFuture<BlackoutController> second = CompletableFuture
+                                .supplyAsync(() -> registry.get("slow"));
+                registry.get("fast");
+                assertEquals(2, made.get());
+                release.countDown();
+                assertTrue(first.get() == second.get());
+                assertEquals(2, made.get());
+        }
+
+        @Test
+        public void testUnloadedJournalSessionsComeBack(@TempDir Path directory) throws IOException {
+                /*
+                 * A journaled session let go of is read back from its checkpoint, unchanged, when it is asked for
+                 * again, both straight away and after the journal is reopened, and its old controller takes no calls
+                 */
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        BlackoutController session = journal.getSession("session");
+                        session.createSatellite("Relay", "RelaySatellite", 12000 + RADIUS_OF_JUPITER,
+                                        Angle.fromDegrees(200));
+                        session.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(190));
+                        session.simulate(5);
+                        EntityInfoResponse relay = session.getInfo("Relay");
+
+                        journal.unload("session");
+                        journal.unload("never used");
+                        assertEquals(0, journal.getSessions().size());
+                        assertThrows(IllegalStateException.class, () -> session.simulate());
+
+                        BlackoutController reloaded = journal.getSession("session");
+                        assertTrue(reloaded != session);
+                        assertEquals(relay, reloaded.getInfo("Relay"));
+                        reloaded.simulate(3);
+                        journal.unload("session");
+                }
+
+                BlackoutController expected = new BlackoutController();
+                expected.createSatellite("Relay", "RelaySatellite", 12000 + RADIUS_OF_JUPITER, Angle.fromDegrees(200));
+                expected.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(190));
+                expected.simulate(8);
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        assertEquals(expected.getInfo("Relay"), journal.getSession("session").getInfo("Relay"));
+                }
+        }
+
+        @Test
+        public void testJournaledSessionsUseTheJournalsContentStore(@TempDir Path directory) throws IOException {
+                /*
+                 * Every session the journal makes, new or read back from a checkpoint, keeps its files' content in
+                 * the store the journal was given
+                 */
+                List<String> stored = new ArrayList<>();
+                ContentStore store = content -> {
+                        stored.add(content);
+                        return new HeapContent(content);
+                };
+                try (CommandJournal journal = new CommandJournal(directory, store)) {
+                        BlackoutController session = journal.getSession("session");
+                        session.createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(10));
+                        session.addFileToDevice("Laptop", "File", "kept in the store");
+                        journal.unload("session");
+                        EntityInfoResponse laptop = journal.getSession("session").getInfo("Laptop");
+                        assertEquals("kept in the store", laptop.getFiles().get("File").getData());
+                }
+                assertEquals(Arrays.asList("kept in the store", "kept in the store"), stored);
+        }
+
+        @Test
+        public void testJournalLeavesIdleSessionsOnDisk(@TempDir Path directory) throws IOException {
+                /*
+                 * Reopening the journal only reads back the sessions with calls after their checkpoints, leaving
+                 * the rest until they are asked for, while a session discarded, or kept out of memory for longer
+                 * than the retention time, comes back empty and its checkpoint is deleted in the end
+                 */
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        for (String id : Arrays.asList("kept", "unloaded", "discarded")) {
+                                journal.getSession(id).createDevice("Laptop", "LaptopDevice", Angle.fromDegrees(10));
+                        }
+                        BlackoutController discarded = journal.getSession("discarded");
+                        journal.unload("unloaded");
+                        journal.discard("discarded");
+                        assertThrows(IllegalStateException.class, () -> discarded.simulate());
+                }
+
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        assertEquals(Arrays.asList("kept"), new ArrayList<>(journal.getSessions().keySet()));
+                        assertEquals(Arrays.asList("Laptop"), journal.getSession("unloaded").listDeviceIds());
+                        assertEquals(0, journal.getSession("discarded").listDeviceIds().size());
+                        journal.unload("unloaded");
+                        journal.unload("discarded");
+
+                        try (DirectoryStream<Path> checkpoints = Files.newDirectoryStream(directory, "session-*")) {
+                                for (Path checkpoint : checkpoints) {
+                                        Files.setLastModifiedTime(checkpoint, FileTime.fromMillis(0));
+                                }
+                        }
+                        journal.setRetention(TimeUnit.DAYS.toMillis(1));
+                }
+
+                try (CommandJournal journal = new CommandJournal(directory)) {
+                        assertEquals(Arrays.asList("kept"), new ArrayList<>(journal.getSessions().keySet()));
+                        assertEquals(0, journal.getSession("unloaded").listDeviceIds().size());
+                        assertEquals(Arrays.asList("Laptop"), journal.getSession("kept").listDeviceIds());
+                        journal.unload("unloaded");
+                        // once every call is checkpointed the old segments go, and with them the discarded markers
+                        journal.unload("kept");
+                        journal.setRetention(TimeUnit.DAYS.toMillis(1));
+                }
+                List<Path> left = new ArrayList<>();
+                try (DirectoryStream<Path> checkpoints = Files.newDirectoryStream(directory, "session-*")) {
+                        checkpoints.forEach(left::add);
+                }
+                assertEquals(1, left.size());
+        }
+
+        private static void applyDelta(Map<String, EntityInfoResponse> world, SimulationDeltaResponse delta) {
+                if (delta.getRemoved() != null) {
+                        delta.getRemoved().forEach(world::remove);
+                }
+                if (delta.getAdded() != null) {
+                        world.putAll(delta.getAdded());
+                }
+                if (delta.getChanged() == null) {
+                        return;
+                }
+
+                delta.getChanged().forEach((id, change) -> {
+                        EntityInfoResponse entity = world.get(id);
+                        Map<String, FileInfoResponse> files = new HashMap<>(entity.getFiles());
+                        if (change.getRemovedFiles() != null) {
+                                change.getRemovedFiles().forEach(files::remove);
+                        }
+                        if (change.getFiles() != null) {
+                                change.getFiles().forEach((filename, file) -> {
+                                        String data = file.getData();
+                                        if (data == null) {
+                                                data = files.get(filename).getData();
+                                                data += file.getAppendedData() == null ? "" : file.getAppendedData();
+                                        }
+                                        files.put(filename, new FileInfoResponse(filename, data, file.getFileSize(),
+                                                        file.isFileComplete()));
+                                });
+                        }
+                        world.put(id, new EntityInfoResponse(id,
+                                        change.getPosition() == null ? entity.getPosition() : change.getPosition(),
+                                        change.getHeight() == null ? entity.getHeight() : change.getHeight(),
+                                        entity.getType(), files));
+                });
+        }
 }